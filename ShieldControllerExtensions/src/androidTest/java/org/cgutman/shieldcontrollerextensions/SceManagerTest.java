@@ -23,9 +23,7 @@ public class SceManagerTest {
     public void setupSceManager() throws InterruptedException {
         sceManager = new SceManager(ApplicationProvider.getApplicationContext());
         assertTrue(sceManager.start());
-
-        // HACK: Wait for service binding and callbacks
-        Thread.sleep(1000);
+        assertTrue(sceManager.awaitReady(5000));
     }
 
     @After
@@ -95,6 +93,18 @@ public class SceManagerTest {
         }
     }
 
+    @Test
+    public void testRecognizedDevices() {
+        List<SceDeviceState> states = sceManager.getRecognizedDevices();
+        assertEquals(getCompatibleDevices().size(), states.size());
+        for (SceDeviceState state : states) {
+            InputDevice dev = InputDevice.getDevice(state.getInputDeviceId());
+            assertNotNull(dev);
+            assertEquals(sceManager.getCategory(dev), state.getCategory());
+            assertEquals(sceManager.getConnectionType(dev), state.getConnectionType());
+        }
+    }
+
     @Test
     public void testRumble() throws InterruptedException {
         for (InputDevice dev : getCompatibleDevices()) {
@@ -105,8 +115,10 @@ public class SceManagerTest {
     }
 
     @Test
-    public void testRestart() {
+    public void testRestart() throws InterruptedException {
         sceManager.stop();
         assertTrue(sceManager.start());
+        assertTrue(sceManager.awaitReady(5000));
+        getCompatibleDevices();
     }
 }
\ No newline at end of file
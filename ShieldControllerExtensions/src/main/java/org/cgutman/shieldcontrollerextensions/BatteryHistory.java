@@ -0,0 +1,147 @@
+package org.cgutman.shieldcontrollerextensions;
+
+// Recent battery levels of a controller, used to estimate how fast it's draining or charging.
+//
+// Samples come from battery change notifications, so no polling is needed. They're kept in a
+// fixed-size ring of primitive arrays and the history restarts whenever the charging state
+// changes, since the rate before the change says nothing about the rate after it.
+//
+// The battery level only changes in whole percent, so the level reported when a device is
+// added could be anywhere within its step. That first sample is replaced by the first level
+// change, and the rate is fitted to the times the level changed.
+//
+// Estimates are only updated when a sample is recorded (by the event worker) and published
+// through a single volatile reference, so queries are cheap enough to make every frame.
+class BatteryHistory {
+    static final int CAPACITY = 32;
+
+    private static final long MS_PER_HOUR = 60 * 60 * 1000;
+
+    private static final class Estimate {
+        final int batteryPercentage;
+        final long sampleTime;
+        final boolean charging;
+
+        // Change in battery percentage per millisecond or NaN if unknown
+        final double slope;
+
+        Estimate(int batteryPercentage, long sampleTime, boolean charging, double slope) {
+            this.batteryPercentage = batteryPercentage;
+            this.sampleTime = sampleTime;
+            this.charging = charging;
+            this.slope = slope;
+        }
+    }
+
+    // Guarded by this
+    private final long[] sampleTimes = new long[CAPACITY];
+    private final int[] samplePercentages = new int[CAPACITY];
+    private int nextIndex;
+    private int count;
+    private boolean levelChanged;
+    private boolean charging;
+
+    private volatile Estimate estimate;
+
+    // Discards the history and starts over from the current state
+    synchronized void reset(int batteryPercentage, boolean charging, long now) {
+        this.charging = charging;
+        levelChanged = false;
+        count = 0;
+        nextIndex = 0;
+        addSampleLocked(batteryPercentage, now);
+        estimate = new Estimate(batteryPercentage, now, charging, Double.NaN);
+    }
+
+    synchronized void recordBatteryPercentage(int batteryPercentage, long now) {
+        if (batteryPercentage < 0) {
+            return;
+        }
+
+        // Replace the sample taken in the middle of a step with this step edge
+        if (!levelChanged) {
+            levelChanged = true;
+            count = 0;
+            nextIndex = 0;
+        }
+        addSampleLocked(batteryPercentage, now);
+        estimate = new Estimate(batteryPercentage, now, charging, fitSlopeLocked());
+    }
+
+    private void addSampleLocked(int batteryPercentage, long now) {
+        sampleTimes[nextIndex] = now;
+        samplePercentages[nextIndex] = batteryPercentage;
+        nextIndex = (nextIndex + 1) % CAPACITY;
+        if (count < CAPACITY) {
+            count++;
+        }
+    }
+
+    // Least squares fit of battery percentage against time
+    private double fitSlopeLocked() {
+        if (count < 2) {
+            return Double.NaN;
+        }
+
+        // Times are taken relative to the oldest sample to keep the sums small
+        int oldestIndex = (nextIndex - count + CAPACITY) % CAPACITY;
+        long baseTime = sampleTimes[oldestIndex];
+        double sumT = 0, sumP = 0, sumTT = 0, sumTP = 0;
+        for (int i = 0; i < count; i++) {
+            int index = (oldestIndex + i) % CAPACITY;
+            double t = sampleTimes[index] - baseTime;
+            double p = samplePercentages[index];
+            sumT += t;
+            sumP += p;
+            sumTT += t * t;
+            sumTP += t * p;
+        }
+
+        double denominator = count * sumTT - sumT * sumT;
+        if (denominator <= 0) {
+            return Double.NaN;
+        }
+        return (count * sumTP - sumT * sumP) / denominator;
+    }
+
+    // Returns the battery drain rate in percent per hour, which is negative while charging,
+    // or NaN if there isn't enough history yet
+    float getDrainRatePerHour(long now) {
+        Estimate estimate = this.estimate;
+        if (estimate == null || Double.isNaN(estimate.slope)) {
+            return Float.NaN;
+        }
+        return (float) (-getSlope(estimate, now) * MS_PER_HOUR);
+    }
+
+    // Returns the estimated time in milliseconds until the battery is empty, or full if it's
+    // charging, or -1 if there isn't enough history yet
+    long getTimeRemainingMs(long now) {
+        Estimate estimate = this.estimate;
+        if (estimate == null || Double.isNaN(estimate.slope)) {
+            return -1;
+        }
+
+        double slope = getSlope(estimate, now);
+        double remainingPercentage = estimate.charging ?
+                100 - estimate.batteryPercentage : estimate.batteryPercentage;
+        if (estimate.charging ? slope <= 0 : slope >= 0) {
+            // The level is moving the wrong way for the charging state
+            return -1;
+        }
+
+        long timeRemaining = (long) (remainingPercentage / Math.abs(slope)) - (now - estimate.sampleTime);
+        return Math.max(timeRemaining, 0);
+    }
+
+    // The level hasn't moved a whole percent since the last sample, so the rate can't be
+    // faster than one percent over that time. This keeps the estimate from going stale when
+    // the rate slows down.
+    private static double getSlope(Estimate estimate, long now) {
+        long elapsed = now - estimate.sampleTime;
+        if (elapsed > 0 && Math.abs(estimate.slope) * elapsed > 1) {
+            return Math.signum(estimate.slope) / elapsed;
+        }
+        return estimate.slope;
+    }
+}
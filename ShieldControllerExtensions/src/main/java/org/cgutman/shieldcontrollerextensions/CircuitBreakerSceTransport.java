@@ -0,0 +1,462 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import android.os.RemoteException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// SceTransport decorator that tracks the health of each controller and stops making
+// transactions for controllers that aren't responding.
+//
+// A transaction for a controller counts as a strike against it if it throws, reports
+// failure, or takes longer than SLOW_TRANSACTION_THRESHOLD_MS. After FAILURE_THRESHOLD
+// consecutive strikes, the circuit for the controller opens and its transactions are
+// short-circuited without making any IPC. Short-circuited commands return false, so
+// keepalives for the controller stop too. Short-circuited queries throw
+// ControllerUnresponsiveException rather than returning a value, so a made-up value never
+// ends up in the property cache or unmaps the controller.
+//
+// While the circuit is open, the controller is probed in the background with a connection
+// state query. The delay before each probe starts at INITIAL_PROBE_DELAY_MS and doubles
+// after each failed probe. A successful probe closes the circuit, as does the service
+// reporting that the controller was added or its connection state changed.
+//
+// Transactions can block for a long time when a controller is dropping off, so this also
+// acts as a watchdog: a transaction still in flight after SLOW_TRANSACTION_THRESHOLD_MS
+// opens the circuit, rather than having other callers queue up behind it.
+class CircuitBreakerSceTransport implements SceTransport {
+    static final int FAILURE_THRESHOLD = 3;
+    static final long SLOW_TRANSACTION_THRESHOLD_MS = 250;
+    static final long INITIAL_PROBE_DELAY_MS = 1000;
+    static final long MAX_PROBE_DELAY_MS = 16000;
+
+    private static final long SLOW_TRANSACTION_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(SLOW_TRANSACTION_THRESHOLD_MS);
+
+    private static class Health {
+        int consecutiveStrikes;
+        boolean open;
+        long probeDelayMs = INITIAL_PROBE_DELAY_MS;
+
+        // Start times of the transactions in flight, in no particular order, for the
+        // watchdog. There are rarely more than a couple, so this is scanned linearly.
+        long[] inFlightStartTimes = new long[4];
+        int inFlightCount;
+
+        void addInFlightLocked(long startTime) {
+            if (inFlightCount == inFlightStartTimes.length) {
+                long[] startTimes = new long[inFlightStartTimes.length * 2];
+                System.arraycopy(inFlightStartTimes, 0, startTimes, 0, inFlightCount);
+                inFlightStartTimes = startTimes;
+            }
+            inFlightStartTimes[inFlightCount++] = startTime;
+        }
+
+        void removeInFlightLocked(long startTime) {
+            for (int i = 0; i < inFlightCount; i++) {
+                if (inFlightStartTimes[i] == startTime) {
+                    inFlightStartTimes[i] = inFlightStartTimes[--inFlightCount];
+                    return;
+                }
+            }
+        }
+    }
+
+    private final SceTransport transport;
+    private final TaskScheduler probeScheduler;
+    private final StatsCollector stats;
+    private final ConcurrentHashMap<String, Health> healthMap = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    CircuitBreakerSceTransport(SceTransport transport, TaskScheduler probeScheduler, StatsCollector stats) {
+        this.transport = transport;
+        this.probeScheduler = probeScheduler;
+        this.stats = stats;
+    }
+
+    // Stops probing once the transport is no longer in use, since the controllers it was
+    // tracking are gone or will be tracked by the transport for the next connection
+    void close() {
+        closed = true;
+        healthMap.clear();
+    }
+
+    SceDeviceHealth getHealth(String controllerToken) {
+        Health health = healthMap.get(controllerToken);
+        if (health == null) {
+            return SceDeviceHealth.HEALTHY;
+        }
+
+        synchronized (health) {
+            if (health.open || isHungLocked(health, System.nanoTime())) {
+                return SceDeviceHealth.UNRESPONSIVE;
+            }
+            else if (health.consecutiveStrikes > 0) {
+                return SceDeviceHealth.DEGRADED;
+            }
+            else {
+                return SceDeviceHealth.HEALTHY;
+            }
+        }
+    }
+
+    private Health getOrCreateHealth(String controllerToken) {
+        Health health = healthMap.get(controllerToken);
+        if (health == null) {
+            Health newHealth = new Health();
+            health = healthMap.putIfAbsent(controllerToken, newHealth);
+            if (health == null) {
+                health = newHealth;
+            }
+        }
+        return health;
+    }
+
+    // Returns true if any transaction in flight has exceeded the threshold. Overlapping
+    // transactions that each complete in time don't count, however long they keep going.
+    private static boolean isHungLocked(Health health, long now) {
+        for (int i = 0; i < health.inFlightCount; i++) {
+            if (now - health.inFlightStartTimes[i] > SLOW_TRANSACTION_THRESHOLD_NANOS) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Returns the health of the controller if a transaction may be made for it, or null if
+    // the transaction must be short-circuited. Each non-null return must be paired with a
+    // call to endTransaction().
+    private Health beginTransaction(String controllerToken, long startTime) {
+        Health health = getOrCreateHealth(controllerToken);
+        boolean opened = false;
+        long probeDelayMs = 0;
+
+        synchronized (health) {
+            if (!health.open) {
+                if (!isHungLocked(health, startTime)) {
+                    health.addInFlightLocked(startTime);
+                    return health;
+                }
+
+                health.open = true;
+                opened = true;
+                probeDelayMs = health.probeDelayMs;
+            }
+        }
+
+        if (opened) {
+            scheduleProbe(controllerToken, health, probeDelayMs);
+        }
+        stats.recordShortCircuit();
+        return null;
+    }
+
+    private void endTransaction(String controllerToken, Health health, long startTime, boolean success) {
+        boolean strike = !success || System.nanoTime() - startTime > SLOW_TRANSACTION_THRESHOLD_NANOS;
+        boolean opened = false;
+        long probeDelayMs = 0;
+
+        synchronized (health) {
+            health.removeInFlightLocked(startTime);
+
+            if (!strike) {
+                health.consecutiveStrikes = 0;
+            }
+            else if (++health.consecutiveStrikes >= FAILURE_THRESHOLD && !health.open) {
+                health.open = true;
+                opened = true;
+                probeDelayMs = health.probeDelayMs;
+            }
+        }
+
+        if (opened) {
+            scheduleProbe(controllerToken, health, probeDelayMs);
+        }
+    }
+
+    private void scheduleProbe(final String controllerToken, final Health health, long delayMs) {
+        if (closed) {
+            return;
+        }
+
+        probeScheduler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                probe(controllerToken, health);
+            }
+        }, delayMs);
+    }
+
+    private void probe(String controllerToken, Health health) {
+        // Stop probing if we were closed, the controller was removed, or its circuit was reset
+        if (closed || healthMap.get(controllerToken) != health) {
+            return;
+        }
+        synchronized (health) {
+            if (!health.open) {
+                return;
+            }
+        }
+
+        long startTime = System.nanoTime();
+        boolean success;
+        try {
+            success = transport.getConnectionState(controllerToken) == SceConnectionState.CONNECTED;
+        } catch (RemoteException e) {
+            success = false;
+        }
+        if (System.nanoTime() - startTime > SLOW_TRANSACTION_THRESHOLD_NANOS) {
+            success = false;
+        }
+
+        long probeDelayMs;
+        synchronized (health) {
+            if (!health.open) {
+                return;
+            }
+
+            if (success) {
+                health.open = false;
+                health.consecutiveStrikes = 0;
+                health.probeDelayMs = INITIAL_PROBE_DELAY_MS;
+                return;
+            }
+
+            health.probeDelayMs = Math.min(health.probeDelayMs * 2, MAX_PROBE_DELAY_MS);
+            probeDelayMs = health.probeDelayMs;
+        }
+
+        scheduleProbe(controllerToken, health, probeDelayMs);
+    }
+
+    @Override
+    public int registerListener(final Listener listener) throws RemoteException {
+        // Events from the service are better evidence of a controller's health than anything
+        // we can infer, so start over when a controller is added, removed, or reconnects
+        return transport.registerListener(new Listener() {
+            @Override
+            public void onDeviceAdded(String controllerToken) {
+                healthMap.remove(controllerToken);
+                listener.onDeviceAdded(controllerToken);
+            }
+
+            @Override
+            public void onDeviceChanged(String controllerToken, int changeType) {
+                // Connection state
+                if (changeType == 4) {
+                    healthMap.remove(controllerToken);
+                }
+                listener.onDeviceChanged(controllerToken, changeType);
+            }
+
+            @Override
+            public void onDeviceRemoved(String controllerToken) {
+                healthMap.remove(controllerToken);
+                listener.onDeviceRemoved(controllerToken);
+            }
+        });
+    }
+
+    @Override
+    public boolean unregisterListener(int listenerId) throws RemoteException {
+        return transport.unregisterListener(listenerId);
+    }
+
+    // The getters below don't have a failure result we can tell apart from a valid value
+    // (a controller without an input device ID is reported with -1), so only exceptions and
+    // slow transactions count against the controller
+
+    @Override
+    public int getInputDeviceId(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        Health health = beginTransaction(controllerToken, startTime);
+        if (health == null) {
+            throw ControllerUnresponsiveException.INSTANCE;
+        }
+
+        boolean success = false;
+        try {
+            int inputDeviceId = transport.getInputDeviceId(controllerToken);
+            success = true;
+            return inputDeviceId;
+        } finally {
+            endTransaction(controllerToken, health, startTime, success);
+        }
+    }
+
+    @Override
+    public boolean rumble(String controllerToken, int lowFreqMotor, int highFreqMotor) throws RemoteException {
+        long startTime = System.nanoTime();
+        Health health = beginTransaction(controllerToken, startTime);
+        if (health == null) {
+            return false;
+        }
+
+        boolean success = false;
+        try {
+            success = transport.rumble(controllerToken, lowFreqMotor, highFreqMotor);
+            return success;
+        } finally {
+            endTransaction(controllerToken, health, startTime, success);
+        }
+    }
+
+    @Override
+    public boolean rumbleWithDuration(String controllerToken, int lowFreqMotor, int highFreqMotor, long durationMs) throws RemoteException {
+        long startTime = System.nanoTime();
+        Health health = beginTransaction(controllerToken, startTime);
+        if (health == null) {
+            return false;
+        }
+
+        boolean success = false;
+        try {
+            success = transport.rumbleWithDuration(controllerToken, lowFreqMotor, highFreqMotor, durationMs);
+            return success;
+        } finally {
+            endTransaction(controllerToken, health, startTime, success);
+        }
+    }
+
+    @Override
+    public SceCategory getCategory(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        Health health = beginTransaction(controllerToken, startTime);
+        if (health == null) {
+            throw ControllerUnresponsiveException.INSTANCE;
+        }
+
+        boolean success = false;
+        try {
+            SceCategory category = transport.getCategory(controllerToken);
+            success = true;
+            return category;
+        } finally {
+            endTransaction(controllerToken, health, startTime, success);
+        }
+    }
+
+    @Override
+    public String getNickname(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        Health health = beginTransaction(controllerToken, startTime);
+        if (health == null) {
+            throw ControllerUnresponsiveException.INSTANCE;
+        }
+
+        boolean success = false;
+        try {
+            String nickname = transport.getNickname(controllerToken);
+            success = true;
+            return nickname;
+        } finally {
+            endTransaction(controllerToken, health, startTime, success);
+        }
+    }
+
+    @Override
+    public String getBatteryState(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        Health health = beginTransaction(controllerToken, startTime);
+        if (health == null) {
+            throw ControllerUnresponsiveException.INSTANCE;
+        }
+
+        boolean success = false;
+        try {
+            String batteryState = transport.getBatteryState(controllerToken);
+            success = true;
+            return batteryState;
+        } finally {
+            endTransaction(controllerToken, health, startTime, success);
+        }
+    }
+
+    @Override
+    public SceChargingState getChargingState(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        Health health = beginTransaction(controllerToken, startTime);
+        if (health == null) {
+            throw ControllerUnresponsiveException.INSTANCE;
+        }
+
+        boolean success = false;
+        try {
+            SceChargingState chargingState = transport.getChargingState(controllerToken);
+            success = true;
+            return chargingState;
+        } finally {
+            endTransaction(controllerToken, health, startTime, success);
+        }
+    }
+
+    @Override
+    public SceConnectionState getConnectionState(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        Health health = beginTransaction(controllerToken, startTime);
+        if (health == null) {
+            throw ControllerUnresponsiveException.INSTANCE;
+        }
+
+        boolean success = false;
+        try {
+            SceConnectionState connectionState = transport.getConnectionState(controllerToken);
+            success = true;
+            return connectionState;
+        } finally {
+            endTransaction(controllerToken, health, startTime, success);
+        }
+    }
+
+    @Override
+    public SceConnectionType getConnectionType(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        Health health = beginTransaction(controllerToken, startTime);
+        if (health == null) {
+            throw ControllerUnresponsiveException.INSTANCE;
+        }
+
+        boolean success = false;
+        try {
+            SceConnectionType connectionType = transport.getConnectionType(controllerToken);
+            success = true;
+            return connectionType;
+        } finally {
+            endTransaction(controllerToken, health, startTime, success);
+        }
+    }
+
+    @Override
+    public boolean identify(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        Health health = beginTransaction(controllerToken, startTime);
+        if (health == null) {
+            return false;
+        }
+
+        boolean success = false;
+        try {
+            success = transport.identify(controllerToken);
+            return success;
+        } finally {
+            endTransaction(controllerToken, health, startTime, success);
+        }
+    }
+
+    @Override
+    public boolean hasHeadset(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        Health health = beginTransaction(controllerToken, startTime);
+        if (health == null) {
+            throw ControllerUnresponsiveException.INSTANCE;
+        }
+
+        boolean success = false;
+        try {
+            boolean hasHeadset = transport.hasHeadset(controllerToken);
+            success = true;
+            return hasHeadset;
+        } finally {
+            endTransaction(controllerToken, health, startTime, success);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import android.os.RemoteException;
+
+// Thrown by CircuitBreakerSceTransport instead of making a transaction for a controller that
+// isn't responding. Callers handle it like any other failed transaction, so nothing mistakes
+// it for a value reported by the service.
+//
+// Queries may be short-circuited every frame while a controller is unresponsive, so a single
+// instance without a stack trace is thrown each time.
+class ControllerUnresponsiveException extends RemoteException {
+    private static final long serialVersionUID = 1L;
+
+    static final ControllerUnresponsiveException INSTANCE = new ControllerUnresponsiveException();
+
+    private ControllerUnresponsiveException() {
+        super("Controller is unresponsive");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
@@ -0,0 +1,34 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import android.os.RemoteException;
+
+// Cached properties of a controller. These are populated when the device is added and
+// kept up to date by onDeviceChanged() callbacks, so readers never need to do IPC.
+class DeviceProperties {
+    volatile int batteryPercentage;
+    // Never modified after it's published, so readers can copy it without locking
+    volatile SceBatteryState batteryState;
+    volatile SceChargingState chargingState;
+    volatile SceConnectionState connectionState;
+    volatile SceConnectionType connectionType;
+    volatile SceCategory category;
+    volatile String nickname;
+    volatile boolean hasHeadset;
+
+    // Only present for properties in the cache
+    volatile BatteryHistory batteryHistory;
+
+    static DeviceProperties fetch(SceTransport transport, String controllerToken) throws RemoteException {
+        DeviceProperties properties = new DeviceProperties();
+        properties.batteryState = new SceBatteryState();
+        properties.batteryState.parse(transport.getBatteryState(controllerToken));
+        properties.batteryPercentage = properties.batteryState.getBatteryPercentage();
+        properties.chargingState = transport.getChargingState(controllerToken);
+        properties.connectionState = transport.getConnectionState(controllerToken);
+        properties.category = transport.getCategory(controllerToken);
+        properties.connectionType = transport.getConnectionType(controllerToken);
+        properties.nickname = transport.getNickname(controllerToken);
+        properties.hasHeadset = transport.hasHeadset(controllerToken);
+        return properties;
+    }
+}
@@ -0,0 +1,155 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import java.util.HashMap;
+
+// Two-way mapping between controller tokens and input device IDs.
+//
+// Lookups by input device ID happen for every input event, so they must be fast and must
+// not allocate. The mapping is stored in an immutable snapshot using an open addressing
+// table keyed by the primitive device ID. Writers (which only occur when devices are added,
+// removed, or remapped) build a new snapshot and publish it with a single volatile write.
+// This means both directions of the mapping are always updated together.
+class DeviceTable {
+    static final class Snapshot {
+        // Dense arrays of mappings
+        private final int[] deviceIds;
+        private final String[] tokens;
+        private final int size;
+
+        // Open addressing table of indexes into the dense arrays (or -1 if empty)
+        private final int[] slots;
+        private final HashMap<String, Integer> tokenIndexes;
+
+        private Snapshot(int[] deviceIds, String[] tokens, int size) {
+            this.deviceIds = deviceIds;
+            this.tokens = tokens;
+            this.size = size;
+
+            // Keep the load factor at or below 0.5 to keep probe sequences short
+            int capacity = 8;
+            while (capacity < size * 2) {
+                capacity *= 2;
+            }
+
+            slots = new int[capacity];
+            for (int i = 0; i < capacity; i++) {
+                slots[i] = -1;
+            }
+
+            tokenIndexes = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                int slot = hash(deviceIds[i]) & (capacity - 1);
+                while (slots[slot] >= 0) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                slots[slot] = i;
+                tokenIndexes.put(tokens[i], i);
+            }
+        }
+
+        private static int hash(int deviceId) {
+            // Device IDs are often sequential, so spread them across the table
+            int h = deviceId * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+
+        int size() {
+            return size;
+        }
+
+        int getDeviceIdAt(int index) {
+            return deviceIds[index];
+        }
+
+        String getTokenAt(int index) {
+            return tokens[index];
+        }
+
+        String getToken(int deviceId) {
+            int mask = slots.length - 1;
+            int slot = hash(deviceId) & mask;
+            for (;;) {
+                int index = slots[slot];
+                if (index < 0) {
+                    return null;
+                }
+                else if (deviceIds[index] == deviceId) {
+                    return tokens[index];
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        int getDeviceId(String controllerToken) {
+            Integer index = tokenIndexes.get(controllerToken);
+            return index != null ? deviceIds[index] : -1;
+        }
+    }
+
+    private static final Snapshot EMPTY = new Snapshot(new int[0], new String[0], 0);
+
+    private volatile Snapshot snapshot = EMPTY;
+
+    Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    String getToken(int deviceId) {
+        return snapshot.getToken(deviceId);
+    }
+
+    // Returns the input device ID for the token or -1 if not mapped
+    int getDeviceId(String controllerToken) {
+        return snapshot.getDeviceId(controllerToken);
+    }
+
+    // Adds a mapping or replaces the existing mapping for this token. Any other token
+    // mapped to the same input device ID is unmapped.
+    synchronized void put(String controllerToken, int deviceId) {
+        Snapshot current = snapshot;
+        int[] deviceIds = new int[current.size + 1];
+        String[] tokens = new String[current.size + 1];
+        int size = 0;
+
+        for (int i = 0; i < current.size; i++) {
+            if (current.deviceIds[i] != deviceId && !current.tokens[i].equals(controllerToken)) {
+                deviceIds[size] = current.deviceIds[i];
+                tokens[size] = current.tokens[i];
+                size++;
+            }
+        }
+        deviceIds[size] = deviceId;
+        tokens[size] = controllerToken;
+        size++;
+
+        snapshot = new Snapshot(deviceIds, tokens, size);
+    }
+
+    // Removes the mapping for the token and returns the input device ID it was mapped to,
+    // or -1 if the token was not mapped.
+    synchronized int remove(String controllerToken) {
+        Snapshot current = snapshot;
+        int deviceId = current.getDeviceId(controllerToken);
+        if (deviceId < 0) {
+            return -1;
+        }
+
+        int[] deviceIds = new int[current.size - 1];
+        String[] tokens = new String[current.size - 1];
+        int size = 0;
+        for (int i = 0; i < current.size; i++) {
+            if (!current.tokens[i].equals(controllerToken)) {
+                deviceIds[size] = current.deviceIds[i];
+                tokens[size] = current.tokens[i];
+                size++;
+            }
+        }
+
+        snapshot = new Snapshot(deviceIds, tokens, size);
+        return deviceId;
+    }
+
+    synchronized void clear() {
+        snapshot = EMPTY;
+    }
+}
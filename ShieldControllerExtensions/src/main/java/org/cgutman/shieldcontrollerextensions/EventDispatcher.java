@@ -0,0 +1,881 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import android.os.RemoteException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// Processes device events from the SHIELD AccessoryService.
+//
+// The service delivers events on a binder thread, and processing them requires further
+// transactions back to the service to fetch the new state. To avoid tying up binder threads
+// (and running app code on them), events are queued to a dedicated worker where the state
+// is fetched and our device mappings and property cache are updated. Listener callbacks are
+// then delivered to each listener through its own SerialExecutor, so listeners can't delay
+// each other or event processing.
+//
+// The service tends to send bursts of onDeviceChanged() calls for the same device (during
+// reconnections, charging transitions, etc). These are coalesced per device over a short
+// window, so each changed property is fetched once and its final value is delivered once.
+// Changes that don't actually alter the value we already have are not delivered at all.
+// Input device ID changes are processed right away instead, since the device can't be
+// found by its new ID until we've remapped it.
+//
+// When we first register our listener, the service reports every existing device at once.
+// Rather than fully processing each device in turn, these are collected during registration
+// and processed as a batch: every device's input device ID is looked up and mapped first,
+// then the properties of each are fetched. That makes all devices usable after one
+// transaction per device. We're ready once the batch has been mapped.
+//
+// The service doesn't tell us when it has finished reporting existing devices, and the
+// reports may arrive on binder threads after registration returns, so the batch is closed
+// after a short settle time. Readiness is therefore best-effort: a device whose report
+// arrives later is processed like any newly added device, after we've become ready.
+class EventDispatcher implements SceTransport.Listener {
+    static final long DEFAULT_COALESCING_WINDOW_MS = 50;
+    // How long after registering our listener we wait for reports of existing devices
+    private static final long REGISTRATION_SETTLE_TIME_MS = 20;
+
+    private final TaskScheduler worker;
+    private final DeviceTable deviceTable;
+    private final ConcurrentHashMap<String, DeviceProperties> devicePropertiesMap;
+    private final RumbleEngine rumbleEngine;
+    private final StatsCollector stats;
+    private final EventJournal journal;
+
+    private volatile SceTransport transport;
+
+    // Handles given out for mapped controllers, which are invalidated when the controller
+    // is unmapped
+    private final ConcurrentHashMap<String, SceController> controllers = new ConcurrentHashMap<>();
+
+    private final CopyOnWriteArrayList<ListenerRegistration> listenerRegistrations = new CopyOnWriteArrayList<>();
+
+    // Used for listeners that don't provide their own executor. Threads are only created
+    // as needed and exit when idle.
+    private final ExecutorService callbackExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SceManager-Callbacks");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private volatile long coalescingWindowMs = DEFAULT_COALESCING_WINDOW_MS;
+
+    // Bitmask of change types waiting to be processed for each controller token.
+    // Guarded by pendingChanges.
+    private final HashMap<String, PendingChanges> pendingChanges = new HashMap<>();
+
+    // Incremented when device state is reset to discard events queued before the reset.
+    // This is read without locking when events are queued. Resets and changes to our device
+    // state are serialized by synchronizing on this object, but transactions are never made
+    // with the lock held, so the generation is checked again before applying their results.
+    private volatile int generation;
+
+    // Battery state is parsed into this before it's compared with the cached state.
+    // Only used on the worker.
+    private final SceBatteryState batteryStateScratch = new SceBatteryState();
+
+    // Devices reported during listener registration, or null if we're not registering.
+    // This and the readiness state are guarded by readyLock.
+    private final Object readyLock = new Object();
+    private ArrayList<String> initialControllerTokens;
+    private boolean ready;
+    private CountDownLatch readyLatch = new CountDownLatch(1);
+    private final ArrayList<SceManager.SceReadyCallback> readyCallbacks = new ArrayList<>();
+
+    private static class PendingChanges {
+        int changeTypeMask;
+    }
+
+    private static class ListenerRegistration {
+        final SceManager.SceDeviceListener listener;
+        final Executor executor;
+
+        ListenerRegistration(SceManager.SceDeviceListener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = new SerialExecutor(executor);
+        }
+    }
+
+    // Listener callback that records how long it waited in the listener's executor
+    private abstract class CallbackTask implements Runnable {
+        private final long queueTime = System.nanoTime();
+
+        @Override
+        public void run() {
+            stats.recordCallbackDispatch(queueTime);
+            deliver();
+        }
+
+        abstract void deliver();
+    }
+
+    private abstract class EventTask implements Runnable {
+        final int taskGeneration = generation;
+        final String controllerToken;
+
+        EventTask(String controllerToken) {
+            this.controllerToken = controllerToken;
+        }
+
+        @Override
+        public void run() {
+            SceTransport transport = EventDispatcher.this.transport;
+            if (taskGeneration != generation || transport == null) {
+                return;
+            }
+
+            try {
+                process(transport);
+            } catch (RemoteException e) {
+                SceManager.logTransactionFailure(e);
+            }
+        }
+
+        abstract void process(SceTransport transport) throws RemoteException;
+    }
+
+    EventDispatcher(TaskScheduler worker, DeviceTable deviceTable,
+                    ConcurrentHashMap<String, DeviceProperties> devicePropertiesMap,
+                    RumbleEngine rumbleEngine, StatsCollector stats, EventJournal journal) {
+        this.worker = worker;
+        this.deviceTable = deviceTable;
+        this.devicePropertiesMap = devicePropertiesMap;
+        this.rumbleEngine = rumbleEngine;
+        this.stats = stats;
+        this.journal = journal;
+    }
+
+    void setTransport(SceTransport transport) {
+        this.transport = transport;
+    }
+
+    // Returns the handle for a mapped controller, creating it if needed, or null if the
+    // controller isn't mapped. This doesn't synchronize with event processing, so the handle
+    // is published before checking the mapping. If the controller is unmapped concurrently,
+    // either we'll see that or the worker will see our handle and invalidate it.
+    SceController getController(String controllerToken, SceManager manager) {
+        SceController controller = controllers.get(controllerToken);
+        if (controller == null) {
+            SceController newController = new SceController(manager, controllerToken);
+            controller = controllers.putIfAbsent(controllerToken, newController);
+            if (controller == null) {
+                controller = newController;
+
+                // The worker gives the handle any properties cached after it's published
+                synchronized (this) {
+                    controller.setProperties(devicePropertiesMap.get(controllerToken));
+                }
+            }
+        }
+
+        if (deviceTable.getDeviceId(controllerToken) < 0) {
+            controller.invalidate();
+            controllers.remove(controllerToken, controller);
+            return null;
+        }
+        return controller;
+    }
+
+    private void invalidateController(String controllerToken) {
+        SceController controller = controllers.remove(controllerToken);
+        if (controller != null) {
+            controller.invalidate();
+        }
+    }
+
+    // Returns the current time on the clock used for battery history samples
+    long uptimeMillis() {
+        return worker.uptimeMillis();
+    }
+
+    // Stops our callback threads once the callbacks already queued to them are delivered.
+    // Nothing may be dispatched after this.
+    void shutdown() {
+        listenerRegistrations.clear();
+        synchronized (readyLock) {
+            readyCallbacks.clear();
+        }
+        callbackExecutor.shutdown();
+    }
+
+    // Sets how long to wait for further onDeviceChanged() calls for a device before processing them
+    void setCoalescingWindow(long windowMs) {
+        coalescingWindowMs = windowMs;
+    }
+
+    // Adds a listener that will receive callbacks on the provided executor, or on a thread
+    // of our own if executor is null. If devices have already been added, the listener will
+    // receive onDeviceAdded() callbacks for each of them from our cached state.
+    void addListener(final SceManager.SceDeviceListener listener, Executor executor) {
+        final ListenerRegistration registration = new ListenerRegistration(listener,
+                executor != null ? executor : callbackExecutor);
+
+        // Synchronize with event processing so the listener sees every device exactly once,
+        // either from the replay or from a live event.
+        synchronized (this) {
+            final DeviceTable.Snapshot snapshot = deviceTable.getSnapshot();
+            if (snapshot.size() > 0) {
+                registration.executor.execute(new CallbackTask() {
+                    @Override
+                    void deliver() {
+                        for (int i = 0; i < snapshot.size(); i++) {
+                            listener.onDeviceAdded(snapshot.getDeviceIdAt(i));
+                        }
+                    }
+                });
+            }
+
+            listenerRegistrations.add(registration);
+        }
+    }
+
+    // Removes all registrations of the listener. Callbacks already queued to the listener's
+    // executor may still be delivered.
+    void removeListener(SceManager.SceDeviceListener listener) {
+        for (ListenerRegistration registration : listenerRegistrations) {
+            if (registration.listener == listener) {
+                listenerRegistrations.remove(registration);
+            }
+        }
+    }
+
+    // Waits until the devices reported during listener registration have been mapped
+    boolean awaitReady(long timeoutMs) throws InterruptedException {
+        CountDownLatch latch;
+        synchronized (readyLock) {
+            latch = readyLatch;
+        }
+        return latch.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Invokes the callback once on a thread of our own when we're ready, or right away if
+    // we already are
+    void addReadyCallback(final SceManager.SceReadyCallback callback) {
+        synchronized (readyLock) {
+            if (!ready) {
+                readyCallbacks.add(callback);
+                return;
+            }
+        }
+
+        callbackExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onReady();
+            }
+        });
+    }
+
+    // Registers us as the transport's listener and returns the listener ID. Devices reported
+    // during registration are processed as a batch afterwards, even if registration fails,
+    // so we never keep batching reports that will never be processed.
+    int register(SceTransport transport) throws RemoteException {
+        beginRegistration();
+        try {
+            return transport.registerListener(this);
+        } finally {
+            endRegistration();
+        }
+    }
+
+    // Called before registering our listener. Devices reported until endRegistration()
+    // is called are processed as a batch.
+    private void beginRegistration() {
+        synchronized (readyLock) {
+            initialControllerTokens = new ArrayList<>();
+        }
+    }
+
+    // Called after our listener is registered to process the devices reported during
+    // registration. We become ready once they're mapped.
+    private void endRegistration() {
+        // The service's reports of existing devices may be delivered on binder threads just
+        // after registration returns, so give them a moment to arrive and join the batch.
+        worker.postDelayed(new EventTask(null) {
+            @Override
+            void process(SceTransport transport) {
+                ArrayList<String> controllerTokens;
+                synchronized (readyLock) {
+                    controllerTokens = initialControllerTokens;
+                    initialControllerTokens = null;
+                }
+                if (controllerTokens != null) {
+                    handleInitialDevices(transport, controllerTokens, taskGeneration);
+                }
+            }
+        }, REGISTRATION_SETTLE_TIME_MS);
+    }
+
+    // Drops all device state and stops rumble effects, or suspends them to be resumed when
+    // their devices are added again. Events queued before this call are discarded, and no
+    // callbacks are delivered for them.
+    synchronized void reset(boolean suspendRumble) {
+        journal.record(EventJournal.DEVICE_STATE_RESET, null);
+        generation++;
+        synchronized (pendingChanges) {
+            pendingChanges.clear();
+        }
+        synchronized (readyLock) {
+            initialControllerTokens = null;
+            if (ready) {
+                ready = false;
+                readyLatch = new CountDownLatch(1);
+            }
+        }
+
+        deviceTable.clear();
+        devicePropertiesMap.clear();
+        for (String controllerToken : controllers.keySet()) {
+            invalidateController(controllerToken);
+        }
+
+        // Stop any ongoing rumble effects
+        if (suspendRumble) {
+            rumbleEngine.suspend();
+        }
+        else {
+            rumbleEngine.stopAll();
+        }
+    }
+
+    // Like reset(), but listeners are told that each device was removed, since they will be
+    // added again when we reconnect to the service
+    synchronized void resetForReconnect(boolean suspendRumble) {
+        DeviceTable.Snapshot snapshot = deviceTable.getSnapshot();
+        reset(suspendRumble);
+
+        for (int i = 0; i < snapshot.size(); i++) {
+            notifyDeviceRemoved(snapshot.getDeviceIdAt(i));
+        }
+    }
+
+    // The following are called on the transport's thread (a binder thread for the real service)
+
+    @Override
+    public void onDeviceAdded(String controllerToken) {
+        journal.record(EventJournal.EVENT_DEVICE_ADDED, controllerToken);
+
+        synchronized (readyLock) {
+            if (initialControllerTokens != null) {
+                if (!initialControllerTokens.contains(controllerToken)) {
+                    initialControllerTokens.add(controllerToken);
+                }
+                return;
+            }
+        }
+
+        worker.post(new EventTask(controllerToken) {
+            @Override
+            void process(SceTransport transport) throws RemoteException {
+                handleDeviceAdded(transport, controllerToken, taskGeneration);
+            }
+        });
+    }
+
+    @Override
+    public void onDeviceChanged(String controllerToken, int changeType) {
+        journal.record(EventJournal.EVENT_DEVICE_CHANGED, controllerToken, changeType, 0, EventJournal.RESULT_NONE);
+
+        // We don't handle any change types that wouldn't fit in our mask
+        if (changeType < 0 || changeType >= 32) {
+            return;
+        }
+
+        // Property changes that are still being coalesced will be processed after this,
+        // so they're reported with the new ID
+        if (changeType == 7) {
+            worker.post(new EventTask(controllerToken) {
+                @Override
+                void process(SceTransport transport) throws RemoteException {
+                    handleDeviceChanged(transport, controllerToken, 7, taskGeneration);
+                }
+            });
+            return;
+        }
+
+        synchronized (pendingChanges) {
+            PendingChanges changes = pendingChanges.get(controllerToken);
+            if (changes != null) {
+                // Processing is already scheduled, so just add this change to it
+                changes.changeTypeMask |= 1 << changeType;
+                return;
+            }
+
+            changes = new PendingChanges();
+            changes.changeTypeMask = 1 << changeType;
+            pendingChanges.put(controllerToken, changes);
+        }
+
+        worker.postDelayed(new EventTask(controllerToken) {
+            @Override
+            void process(SceTransport transport) throws RemoteException {
+                PendingChanges changes;
+                synchronized (pendingChanges) {
+                    changes = pendingChanges.remove(controllerToken);
+                }
+                if (changes != null) {
+                    handleDeviceChanges(transport, controllerToken, changes.changeTypeMask, taskGeneration);
+                }
+            }
+        }, coalescingWindowMs);
+    }
+
+    @Override
+    public void onDeviceRemoved(String controllerToken) {
+        journal.record(EventJournal.EVENT_DEVICE_REMOVED, controllerToken);
+
+        // Any pending changes for this device are moot now
+        synchronized (pendingChanges) {
+            pendingChanges.remove(controllerToken);
+        }
+        synchronized (readyLock) {
+            if (initialControllerTokens != null && initialControllerTokens.remove(controllerToken)) {
+                return;
+            }
+        }
+
+        worker.post(new EventTask(controllerToken) {
+            @Override
+            void process(SceTransport transport) {
+                synchronized (EventDispatcher.this) {
+                    if (taskGeneration == generation) {
+                        handleDeviceRemovedLocked(controllerToken);
+                    }
+                }
+            }
+        });
+    }
+
+    // The following are called on the worker. Transactions are made without holding our lock,
+    // and their results are applied with it held, unless device state was reset in between.
+
+    private void handleInitialDevices(SceTransport transport, ArrayList<String> controllerTokens, int taskGeneration) {
+        // Map all devices first, so they're all usable as soon as possible
+        ArrayList<String> addedTokens = new ArrayList<>(controllerTokens.size());
+        for (String controllerToken : controllerTokens) {
+            // Skip devices that were already added by a later event
+            if (deviceTable.getDeviceId(controllerToken) >= 0) {
+                continue;
+            }
+
+            int inputDeviceId;
+            try {
+                inputDeviceId = transport.getInputDeviceId(controllerToken);
+            } catch (RemoteException e) {
+                SceManager.logTransactionFailure(e);
+                continue;
+            }
+
+            // Devices without an input device ID are added in onDeviceChanged() when they get one
+            if (inputDeviceId >= 0) {
+                synchronized (this) {
+                    if (taskGeneration != generation) {
+                        return;
+                    }
+                    mapDeviceLocked(controllerToken, inputDeviceId);
+                }
+                addedTokens.add(controllerToken);
+            }
+        }
+
+        synchronized (this) {
+            if (taskGeneration != generation) {
+                return;
+            }
+            markReady();
+        }
+
+        // Until the properties are cached, queries for them fall back to IPC
+        for (String controllerToken : addedTokens) {
+            DeviceProperties properties;
+            try {
+                properties = DeviceProperties.fetch(transport, controllerToken);
+            } catch (RemoteException e) {
+                SceManager.logTransactionFailure(e);
+                continue;
+            }
+
+            synchronized (this) {
+                if (taskGeneration != generation) {
+                    return;
+                }
+                if (deviceTable.getDeviceId(controllerToken) >= 0) {
+                    cacheProperties(controllerToken, properties);
+                }
+            }
+        }
+    }
+
+    // Called with our lock held, so getController() can't miss the properties of a new handle
+    private void cacheProperties(String controllerToken, DeviceProperties properties) {
+        properties.batteryHistory = new BatteryHistory();
+        properties.batteryHistory.reset(properties.batteryPercentage,
+                properties.chargingState == SceChargingState.CHARGING, worker.uptimeMillis());
+        devicePropertiesMap.put(controllerToken, properties);
+
+        SceController controller = controllers.get(controllerToken);
+        if (controller != null) {
+            controller.setProperties(properties);
+        }
+    }
+
+    private void mapDeviceLocked(String controllerToken, int inputDeviceId) {
+        deviceTable.put(controllerToken, inputDeviceId);
+        journal.record(EventJournal.DEVICE_MAPPED, controllerToken, inputDeviceId, 0, EventJournal.RESULT_NONE);
+        rumbleEngine.resume(controllerToken);
+        notifyDeviceAdded(inputDeviceId);
+    }
+
+    // Returns the input device ID of the controller if it's still mapped and device state
+    // hasn't been reset since the task was queued, or -1 otherwise
+    private int getMappedDeviceIdLocked(String controllerToken, int taskGeneration) {
+        return taskGeneration == generation ? deviceTable.getDeviceId(controllerToken) : -1;
+    }
+
+    private void markReady() {
+        final ArrayList<SceManager.SceReadyCallback> callbacks;
+        synchronized (readyLock) {
+            ready = true;
+            readyLatch.countDown();
+            callbacks = new ArrayList<>(readyCallbacks);
+            readyCallbacks.clear();
+        }
+
+        for (final SceManager.SceReadyCallback callback : callbacks) {
+            callbackExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onReady();
+                }
+            });
+        }
+    }
+
+    private void handleDeviceAdded(SceTransport transport, String controllerToken, int taskGeneration) throws RemoteException {
+        int inputDeviceId = transport.getInputDeviceId(controllerToken);
+
+        // If we don't have an input device ID yet, ignore this callback.
+        // We will invoke it again in onDeviceChanged() when an ID is assigned.
+        if (inputDeviceId < 0) {
+            return;
+        }
+
+        // Map the device first, so it's usable as soon as possible. Until the properties
+        // are cached, queries for them fall back to IPC.
+        synchronized (this) {
+            if (taskGeneration != generation) {
+                return;
+            }
+            mapDeviceLocked(controllerToken, inputDeviceId);
+        }
+
+        DeviceProperties properties = DeviceProperties.fetch(transport, controllerToken);
+        synchronized (this) {
+            if (getMappedDeviceIdLocked(controllerToken, taskGeneration) >= 0) {
+                cacheProperties(controllerToken, properties);
+            }
+        }
+    }
+
+    private void handleDeviceChanges(SceTransport transport, String controllerToken, int changeTypeMask, int taskGeneration) {
+        for (int changeType = 0; changeTypeMask != 0; changeType++) {
+            if ((changeTypeMask & (1 << changeType)) != 0) {
+                // A failed query only drops its own change, not the others coalesced with it
+                try {
+                    handleDeviceChanged(transport, controllerToken, changeType, taskGeneration);
+                } catch (RemoteException e) {
+                    SceManager.logTransactionFailure(e);
+                }
+                changeTypeMask &= ~(1 << changeType);
+            }
+        }
+    }
+
+    private void handleDeviceChanged(SceTransport transport, String controllerToken, int changeType, int taskGeneration) throws RemoteException {
+        if (deviceTable.getDeviceId(controllerToken) < 0) {
+            // If this is an input device changed, we will treat this as a device added
+            // when we're gaining an input device ID for the first time.
+            if (changeType == 7) {
+                handleDeviceAdded(transport, controllerToken, taskGeneration);
+            }
+            return;
+        }
+
+        // Keep our cached properties up to date even if nobody is listening. If we have a
+        // cached value, we only notify if the new value is actually different. The device
+        // may be removed while we fetch the new value, in which case it's dropped.
+        switch (changeType) {
+            case 2: {
+                batteryStateScratch.parse(transport.getBatteryState(controllerToken));
+                int batteryPercentage = batteryStateScratch.getBatteryPercentage();
+                synchronized (this) {
+                    int inputDeviceId = getMappedDeviceIdLocked(controllerToken, taskGeneration);
+                    if (inputDeviceId < 0) {
+                        break;
+                    }
+
+                    // The cached battery state is replaced rather than modified, so it's only
+                    // copied if something changed
+                    DeviceProperties properties = devicePropertiesMap.get(controllerToken);
+                    if (properties != null) {
+                        SceBatteryState batteryState = properties.batteryState;
+                        if (batteryState == null || !batteryState.contentEquals(batteryStateScratch)) {
+                            batteryState = new SceBatteryState();
+                            batteryState.copyFrom(batteryStateScratch);
+                            properties.batteryState = batteryState;
+                        }
+
+                        if (properties.batteryPercentage == batteryPercentage) {
+                            break;
+                        }
+                        properties.batteryPercentage = batteryPercentage;
+                        properties.batteryHistory.recordBatteryPercentage(batteryPercentage, worker.uptimeMillis());
+                    }
+                    notifyBatteryPercentageChanged(inputDeviceId, batteryPercentage);
+                }
+                break;
+            }
+            case 3: {
+                SceChargingState chargingState = transport.getChargingState(controllerToken);
+                synchronized (this) {
+                    int inputDeviceId = getMappedDeviceIdLocked(controllerToken, taskGeneration);
+                    if (inputDeviceId < 0) {
+                        break;
+                    }
+
+                    DeviceProperties properties = devicePropertiesMap.get(controllerToken);
+                    if (properties != null) {
+                        if (properties.chargingState == chargingState) {
+                            break;
+                        }
+                        properties.chargingState = chargingState;
+                        properties.batteryHistory.reset(properties.batteryPercentage,
+                                chargingState == SceChargingState.CHARGING, worker.uptimeMillis());
+                    }
+                    notifyChargingStateChanged(inputDeviceId, chargingState);
+                }
+                break;
+            }
+            case 4: {
+                SceConnectionState connectionState = transport.getConnectionState(controllerToken);
+                synchronized (this) {
+                    int inputDeviceId = getMappedDeviceIdLocked(controllerToken, taskGeneration);
+                    if (inputDeviceId < 0) {
+                        break;
+                    }
+
+                    DeviceProperties properties = devicePropertiesMap.get(controllerToken);
+                    if (properties != null) {
+                        if (properties.connectionState == connectionState) {
+                            break;
+                        }
+                        properties.connectionState = connectionState;
+                    }
+                    notifyConnectionStateChanged(inputDeviceId, connectionState);
+                }
+                break;
+            }
+            case 5: {
+                SceConnectionType connectionType = transport.getConnectionType(controllerToken);
+                synchronized (this) {
+                    int inputDeviceId = getMappedDeviceIdLocked(controllerToken, taskGeneration);
+                    if (inputDeviceId < 0) {
+                        break;
+                    }
+
+                    DeviceProperties properties = devicePropertiesMap.get(controllerToken);
+                    if (properties != null) {
+                        if (properties.connectionType == connectionType) {
+                            break;
+                        }
+                        properties.connectionType = connectionType;
+                    }
+                    notifyConnectionTypeChanged(inputDeviceId, connectionType);
+                }
+                break;
+            }
+            case 7: {
+                // We handle input device ID changed internally to keep our mapping in sync.
+                // NB: This can be called for a transition from a valid to invalid input device ID.
+                int newInputDeviceId = transport.getInputDeviceId(controllerToken);
+                synchronized (this) {
+                    int inputDeviceId = getMappedDeviceIdLocked(controllerToken, taskGeneration);
+                    if (inputDeviceId < 0 || newInputDeviceId == inputDeviceId) {
+                        break;
+                    }
+                    else if (newInputDeviceId >= 0) {
+                        // This atomically replaces both directions of the mapping
+                        deviceTable.put(controllerToken, newInputDeviceId);
+                        journal.record(EventJournal.DEVICE_REMAPPED, controllerToken, inputDeviceId, newInputDeviceId, EventJournal.RESULT_NONE);
+                        notifyInputDeviceIdChanged(inputDeviceId, newInputDeviceId);
+                    }
+                    else {
+                        // Treat transition to -1 as a device removal. We don't notify this case
+                        // as a normal input device ID change.
+                        handleDeviceRemovedLocked(controllerToken);
+                    }
+                }
+                break;
+            }
+            case 8: {
+                String nickname = transport.getNickname(controllerToken);
+                synchronized (this) {
+                    int inputDeviceId = getMappedDeviceIdLocked(controllerToken, taskGeneration);
+                    if (inputDeviceId < 0) {
+                        break;
+                    }
+
+                    DeviceProperties properties = devicePropertiesMap.get(controllerToken);
+                    if (properties != null) {
+                        if (nickname == null ? properties.nickname == null : nickname.equals(properties.nickname)) {
+                            break;
+                        }
+                        properties.nickname = nickname;
+                    }
+                    notifyNicknameChanged(inputDeviceId, nickname);
+                }
+                break;
+            }
+            case 11: {
+                boolean hasHeadset = transport.hasHeadset(controllerToken);
+                synchronized (this) {
+                    int inputDeviceId = getMappedDeviceIdLocked(controllerToken, taskGeneration);
+                    if (inputDeviceId < 0) {
+                        break;
+                    }
+
+                    DeviceProperties properties = devicePropertiesMap.get(controllerToken);
+                    if (properties != null) {
+                        if (properties.hasHeadset == hasHeadset) {
+                            break;
+                        }
+                        properties.hasHeadset = hasHeadset;
+                    }
+                    notifyHeadsetPresenceChanged(inputDeviceId, hasHeadset);
+                }
+                break;
+            }
+        }
+    }
+
+    private void handleDeviceRemovedLocked(String controllerToken) {
+        int inputDeviceId = deviceTable.remove(controllerToken);
+        if (inputDeviceId >= 0) {
+            journal.record(EventJournal.DEVICE_UNMAPPED, controllerToken, inputDeviceId, 0, EventJournal.RESULT_NONE);
+            invalidateController(controllerToken);
+            devicePropertiesMap.remove(controllerToken);
+            rumbleEngine.removeController(controllerToken);
+            notifyDeviceRemoved(inputDeviceId);
+        }
+    }
+
+    private void notifyDeviceAdded(final int inputDeviceId) {
+        for (final ListenerRegistration registration : listenerRegistrations) {
+            registration.executor.execute(new CallbackTask() {
+                @Override
+                void deliver() {
+                    registration.listener.onDeviceAdded(inputDeviceId);
+                }
+            });
+        }
+    }
+
+    private void notifyDeviceRemoved(final int inputDeviceId) {
+        for (final ListenerRegistration registration : listenerRegistrations) {
+            registration.executor.execute(new CallbackTask() {
+                @Override
+                void deliver() {
+                    registration.listener.onDeviceRemoved(inputDeviceId);
+                }
+            });
+        }
+    }
+
+    private void notifyBatteryPercentageChanged(final int inputDeviceId, final int batteryPercentage) {
+        for (final ListenerRegistration registration : listenerRegistrations) {
+            registration.executor.execute(new CallbackTask() {
+                @Override
+                void deliver() {
+                    registration.listener.onBatteryPercentageChanged(inputDeviceId, batteryPercentage);
+                }
+            });
+        }
+    }
+
+    private void notifyChargingStateChanged(final int inputDeviceId, final SceChargingState chargingState) {
+        for (final ListenerRegistration registration : listenerRegistrations) {
+            registration.executor.execute(new CallbackTask() {
+                @Override
+                void deliver() {
+                    registration.listener.onChargingStateChanged(inputDeviceId, chargingState);
+                }
+            });
+        }
+    }
+
+    private void notifyConnectionStateChanged(final int inputDeviceId, final SceConnectionState connectionState) {
+        for (final ListenerRegistration registration : listenerRegistrations) {
+            registration.executor.execute(new CallbackTask() {
+                @Override
+                void deliver() {
+                    registration.listener.onConnectionStateChanged(inputDeviceId, connectionState);
+                }
+            });
+        }
+    }
+
+    private void notifyConnectionTypeChanged(final int inputDeviceId, final SceConnectionType connectionType) {
+        for (final ListenerRegistration registration : listenerRegistrations) {
+            registration.executor.execute(new CallbackTask() {
+                @Override
+                void deliver() {
+                    registration.listener.onConnectionTypeChanged(inputDeviceId, connectionType);
+                }
+            });
+        }
+    }
+
+    private void notifyInputDeviceIdChanged(final int oldInputDeviceId, final int newInputDeviceId) {
+        for (final ListenerRegistration registration : listenerRegistrations) {
+            registration.executor.execute(new CallbackTask() {
+                @Override
+                void deliver() {
+                    registration.listener.onInputDeviceIdChanged(oldInputDeviceId, newInputDeviceId);
+                }
+            });
+        }
+    }
+
+    private void notifyNicknameChanged(final int inputDeviceId, final String nickname) {
+        for (final ListenerRegistration registration : listenerRegistrations) {
+            registration.executor.execute(new CallbackTask() {
+                @Override
+                void deliver() {
+                    registration.listener.onNicknameChanged(inputDeviceId, nickname);
+                }
+            });
+        }
+    }
+
+    private void notifyHeadsetPresenceChanged(final int inputDeviceId, final boolean hasHeadset) {
+        for (final ListenerRegistration registration : listenerRegistrations) {
+            registration.executor.execute(new CallbackTask() {
+                @Override
+                void deliver() {
+                    registration.listener.onHeadsetPresenceChanged(inputDeviceId, hasHeadset);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import java.io.PrintWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Fixed-size journal of recent SceManager activity for diagnosing problems after the fact.
+//
+// Records are stored as packed primitives in a preallocated ring, so recording never
+// allocates (except the first time a controller token is seen) and never takes a lock.
+// Each writer claims a sequence number and writes its record into the corresponding slot,
+// bracketed by writes to the slot's stamp. A reader only accepts a record if the stamp
+// matches the expected sequence number before and after reading it, so records that are
+// being written or have been overwritten are skipped rather than reported torn.
+//
+// The journal is disabled until a capacity is set, in which case recording only costs
+// a volatile read.
+class EventJournal {
+    // Binder events received from the service
+    static final int EVENT_DEVICE_ADDED = 1;
+    static final int EVENT_DEVICE_CHANGED = 2; // arg0: change type
+    static final int EVENT_DEVICE_REMOVED = 3;
+
+    // Changes to our device mappings
+    static final int DEVICE_MAPPED = 4; // arg0: input device ID
+    static final int DEVICE_REMAPPED = 5; // arg0: old input device ID, arg1: new input device ID
+    static final int DEVICE_UNMAPPED = 6; // arg0: input device ID
+    static final int DEVICE_STATE_RESET = 7;
+
+    // Rumble transactions (arg0: low frequency motor, arg1: high frequency motor)
+    static final int RUMBLE = 8;
+    static final int RUMBLE_KEEPALIVE = 9;
+
+    // Haptic effects
+    static final int EFFECT_STARTED = 10; // arg0: duration, arg1: 1 if looping
+    static final int EFFECT_CANCELED = 11;
+
+    // Timed rumble stopped by the service (arg0: low frequency motor, arg1: high frequency motor)
+    static final int RUMBLE_IMPULSE = 12;
+
+    private static final String[] CODE_NAMES = {
+            null,
+            "DEVICE_ADDED",
+            "DEVICE_CHANGED",
+            "DEVICE_REMOVED",
+            "DEVICE_MAPPED",
+            "DEVICE_REMAPPED",
+            "DEVICE_UNMAPPED",
+            "DEVICE_STATE_RESET",
+            "RUMBLE",
+            "RUMBLE_KEEPALIVE",
+            "EFFECT_STARTED",
+            "EFFECT_CANCELED",
+            "RUMBLE_IMPULSE",
+    };
+
+    static final int RESULT_NONE = 0;
+    static final int RESULT_SUCCESS = 1;
+    static final int RESULT_FAILURE = 2;
+    static final int RESULT_EXCEPTION = 3;
+
+    private static final String[] RESULT_NAMES = {
+            null,
+            "success",
+            "failure",
+            "exception",
+    };
+
+    // Words of each record in the ring
+    private static final int WORD_STAMP = 0;
+    private static final int WORD_TIME = 1;
+    private static final int WORD_TOKEN_AND_CODE = 2;
+    private static final int WORD_ARGS = 3;
+    private static final int WORD_RESULT = 4;
+    private static final int RECORD_WORDS = 5;
+
+    private static class Buffer {
+        final int capacity;
+        final AtomicLongArray records;
+        final AtomicLong nextSequence = new AtomicLong();
+
+        Buffer(int capacity) {
+            this.capacity = capacity;
+            this.records = new AtomicLongArray(capacity * RECORD_WORDS);
+            for (int i = 0; i < capacity; i++) {
+                records.set(i * RECORD_WORDS + WORD_STAMP, -1);
+            }
+        }
+    }
+
+    private volatile Buffer buffer;
+
+    // Controller tokens are recorded as small integer IDs
+    private final ConcurrentHashMap<String, Integer> tokenIds = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, String> tokensById = new ConcurrentHashMap<>();
+    private final AtomicInteger nextTokenId = new AtomicInteger(1);
+
+    // Sets the number of records to keep, discarding any existing records. A capacity
+    // of 0 disables the journal.
+    void setCapacity(int capacity) {
+        buffer = capacity > 0 ? new Buffer(capacity) : null;
+    }
+
+    boolean isEnabled() {
+        return buffer != null;
+    }
+
+    void record(int code, String controllerToken) {
+        record(code, controllerToken, 0, 0, RESULT_NONE);
+    }
+
+    void record(int code, String controllerToken, int arg0, int arg1, int result) {
+        Buffer buffer = this.buffer;
+        if (buffer == null) {
+            return;
+        }
+
+        long sequence = buffer.nextSequence.getAndIncrement();
+        int base = (int) (sequence % buffer.capacity) * RECORD_WORDS;
+        int tokenId = controllerToken != null ? getTokenId(controllerToken) : 0;
+
+        // Invalidate the slot before writing it. The remaining writes only need to be
+        // ordered after this, which lazySet() provides without a full fence for each.
+        buffer.records.set(base + WORD_STAMP, -1);
+        buffer.records.lazySet(base + WORD_TIME, System.nanoTime());
+        buffer.records.lazySet(base + WORD_TOKEN_AND_CODE, ((long) tokenId << 32) | (code & 0xFFFFFFFFL));
+        buffer.records.lazySet(base + WORD_ARGS, ((long) arg0 << 32) | (arg1 & 0xFFFFFFFFL));
+        buffer.records.lazySet(base + WORD_RESULT, result);
+        buffer.records.lazySet(base + WORD_STAMP, sequence);
+    }
+
+    private int getTokenId(String controllerToken) {
+        Integer tokenId = tokenIds.get(controllerToken);
+        if (tokenId == null) {
+            Integer newTokenId = nextTokenId.getAndIncrement();
+            tokenId = tokenIds.putIfAbsent(controllerToken, newTokenId);
+            if (tokenId == null) {
+                tokensById.put(newTokenId, controllerToken);
+                tokenId = newTokenId;
+            }
+        }
+        return tokenId;
+    }
+
+    // Writes the records in the journal from oldest to newest
+    void dump(PrintWriter writer) {
+        Buffer buffer = this.buffer;
+        if (buffer == null) {
+            writer.println("Event journal is disabled");
+            return;
+        }
+
+        long now = System.nanoTime();
+        long endSequence = buffer.nextSequence.get();
+        long startSequence = Math.max(0, endSequence - buffer.capacity);
+        for (long sequence = startSequence; sequence < endSequence; sequence++) {
+            int base = (int) (sequence % buffer.capacity) * RECORD_WORDS;
+            if (buffer.records.get(base + WORD_STAMP) != sequence) {
+                continue;
+            }
+
+            long time = buffer.records.get(base + WORD_TIME);
+            long tokenAndCode = buffer.records.get(base + WORD_TOKEN_AND_CODE);
+            long args = buffer.records.get(base + WORD_ARGS);
+            int result = (int) buffer.records.get(base + WORD_RESULT);
+
+            // Skip the record if it was overwritten while we were reading it
+            if (buffer.records.get(base + WORD_STAMP) != sequence) {
+                continue;
+            }
+
+            int code = (int) tokenAndCode;
+            int tokenId = (int) (tokenAndCode >>> 32);
+            StringBuilder line = new StringBuilder();
+            line.append(String.format("%10.3f ms ", (time - now) / 1000000.0));
+            line.append(code >= 0 && code < CODE_NAMES.length && CODE_NAMES[code] != null ? CODE_NAMES[code] : "UNKNOWN(" + code + ")");
+            if (tokenId != 0) {
+                line.append(' ').append(tokensById.get(tokenId));
+            }
+            line.append(" args=").append((int) (args >>> 32)).append(',').append((int) args);
+            if (result > 0 && result < RESULT_NAMES.length) {
+                line.append(" result=").append(RESULT_NAMES[result]);
+            }
+            writer.println(line);
+        }
+        writer.flush();
+    }
+}
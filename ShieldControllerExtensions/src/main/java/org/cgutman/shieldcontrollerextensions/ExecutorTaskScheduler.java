@@ -0,0 +1,60 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+class ExecutorTaskScheduler implements TaskScheduler {
+    private final ScheduledExecutorService executor;
+
+    ExecutorTaskScheduler(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    // Creates a scheduler backed by a single daemon thread. The thread is only started
+    // when there is work to do and exits after it has been idle for a while.
+    static ExecutorTaskScheduler createDefault(final String threadName) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.setKeepAliveTime(10, TimeUnit.SECONDS);
+        executor.allowCoreThreadTimeOut(true);
+        return new ExecutorTaskScheduler(executor);
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    // Tasks posted after this are dropped, since there's nothing left to run them for.
+    // Only call this on a scheduler we created, not one wrapping a caller's executor.
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void post(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Shut down
+        }
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        try {
+            executor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import android.os.Handler;
+
+import java.util.concurrent.Executor;
+
+class HandlerExecutor implements Executor {
+    private final Handler handler;
+
+    HandlerExecutor(Handler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void execute(Runnable runnable) {
+        handler.post(runnable);
+    }
+}
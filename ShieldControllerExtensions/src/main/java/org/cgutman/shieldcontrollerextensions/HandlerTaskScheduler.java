@@ -0,0 +1,28 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+class HandlerTaskScheduler implements TaskScheduler {
+    private final Handler handler;
+
+    HandlerTaskScheduler(Looper looper) {
+        this.handler = new Handler(looper);
+    }
+
+    @Override
+    public long uptimeMillis() {
+        return SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public void post(Runnable task) {
+        handler.post(task);
+    }
+
+    @Override
+    public void postDelayed(Runnable task, long delayMs) {
+        handler.postDelayed(task, delayMs);
+    }
+}
@@ -4,21 +4,59 @@ import android.os.IBinder;
 import android.os.Parcel;
 import android.os.RemoteException;
 
-class IExposedControllerBinderWrapper {
+class IExposedControllerBinderWrapper implements SceTransport {
+    private static final String DESCRIPTOR = "com.nvidia.blakepairing.IExposedControllerBinder";
+
+    private static final int TRANSACTION_GET_NICKNAME = 3;
+    private static final int TRANSACTION_GET_CHARGING_STATE = 9;
+    private static final int TRANSACTION_GET_CONNECTION_STATE = 10;
+    // FIXME: getCategory() and getConnectionType() both use transaction 11, as they have since
+    // the original implementation. This hasn't been verified against the service, and one of
+    // them is probably a copy-paste error, but the right code for the other isn't known. Until
+    // it is, each decodes its own value from the same reply.
+    private static final int TRANSACTION_GET_CATEGORY = 11;
+    private static final int TRANSACTION_GET_CONNECTION_TYPE = 11;
+    private static final int TRANSACTION_GET_INPUT_DEVICE_ID = 13;
+    private static final int TRANSACTION_IDENTIFY = 14;
+    private static final int TRANSACTION_RUMBLE = 18;
+    private static final int TRANSACTION_RUMBLE_WITH_DURATION = 19;
+    private static final int TRANSACTION_REGISTER_LISTENER = 20;
+    private static final int TRANSACTION_UNREGISTER_LISTENER = 21;
+    private static final int TRANSACTION_GET_BATTERY_STATE = 28;
+    private static final int TRANSACTION_HAS_HEADSET = 31;
+
     private final IBinder binder;
 
     IExposedControllerBinderWrapper(IBinder binder) {
         this.binder = binder;
     }
 
-    int registerListener(IExposedControllerManagerListener.Stub controllerListener) throws RemoteException {
+    @Override
+    public int registerListener(final Listener listener) throws RemoteException {
+        IExposedControllerManagerListener.Stub controllerListener = new IExposedControllerManagerListener.Stub() {
+            @Override
+            public void onDeviceAdded(String controllerToken) {
+                listener.onDeviceAdded(controllerToken);
+            }
+
+            @Override
+            public void onDeviceChanged(String controllerToken, int changeType) {
+                listener.onDeviceChanged(controllerToken, changeType);
+            }
+
+            @Override
+            public void onDeviceRemoved(String controllerToken) {
+                listener.onDeviceRemoved(controllerToken);
+            }
+        };
+
         Parcel input = Parcel.obtain();
         Parcel output = Parcel.obtain();
         try {
-            input.writeInterfaceToken("com.nvidia.blakepairing.IExposedControllerBinder");
+            input.writeInterfaceToken(DESCRIPTOR);
             input.writeStrongBinder(controllerListener);
 
-            binder.transact(20, input, output, 0);
+            binder.transact(TRANSACTION_REGISTER_LISTENER, input, output, 0);
 
             output.readException();
             return output.readInt();
@@ -28,14 +66,15 @@ class IExposedControllerBinderWrapper {
         }
     }
 
-    boolean unregisterListener(int listenerId) throws RemoteException {
+    @Override
+    public boolean unregisterListener(int listenerId) throws RemoteException {
         Parcel input = Parcel.obtain();
         Parcel output = Parcel.obtain();
         try {
-            input.writeInterfaceToken("com.nvidia.blakepairing.IExposedControllerBinder");
+            input.writeInterfaceToken(DESCRIPTOR);
             input.writeInt(listenerId);
 
-            binder.transact(21, input, output, 0);
+            binder.transact(TRANSACTION_UNREGISTER_LISTENER, input, output, 0);
 
             output.readException();
             return output.readInt() != 0;
@@ -45,14 +84,15 @@ class IExposedControllerBinderWrapper {
         }
     }
 
-    int getInputDeviceId(String controllerToken) throws RemoteException {
+    @Override
+    public int getInputDeviceId(String controllerToken) throws RemoteException {
         Parcel input = Parcel.obtain();
         Parcel output = Parcel.obtain();
         try {
-            input.writeInterfaceToken("com.nvidia.blakepairing.IExposedControllerBinder");
+            input.writeInterfaceToken(DESCRIPTOR);
             input.writeString(controllerToken);
 
-            binder.transact(13, input, output, 0);
+            binder.transact(TRANSACTION_GET_INPUT_DEVICE_ID, input, output, 0);
 
             output.readException();
             return output.readInt();
@@ -62,17 +102,17 @@ class IExposedControllerBinderWrapper {
         }
     }
 
-    // Rumble duration maximum of 1 second
-    boolean rumble(String controllerToken, int lowFreqMotor, int highFreqMotor) throws RemoteException {
+    @Override
+    public boolean rumble(String controllerToken, int lowFreqMotor, int highFreqMotor) throws RemoteException {
         Parcel input = Parcel.obtain();
         Parcel output = Parcel.obtain();
         try {
-            input.writeInterfaceToken("com.nvidia.blakepairing.IExposedControllerBinder");
+            input.writeInterfaceToken(DESCRIPTOR);
             input.writeString(controllerToken);
             input.writeInt(lowFreqMotor);
             input.writeInt(highFreqMotor);
 
-            binder.transact(18, input, output, 0);
+            binder.transact(TRANSACTION_RUMBLE, input, output, 0);
 
             output.readException();
             return output.readInt() != 0;
@@ -82,18 +122,18 @@ class IExposedControllerBinderWrapper {
         }
     }
 
-    // Rumble duration maximum of 1.5 seconds
-    boolean rumbleWithDuration(String controllerToken, int lowFreqMotor, int highFreqMotor, long durationMs) throws RemoteException {
+    @Override
+    public boolean rumbleWithDuration(String controllerToken, int lowFreqMotor, int highFreqMotor, long durationMs) throws RemoteException {
         Parcel input = Parcel.obtain();
         Parcel output = Parcel.obtain();
         try {
-            input.writeInterfaceToken("com.nvidia.blakepairing.IExposedControllerBinder");
+            input.writeInterfaceToken(DESCRIPTOR);
             input.writeString(controllerToken);
             input.writeInt(lowFreqMotor);
             input.writeInt(highFreqMotor);
             input.writeLong(durationMs);
 
-            binder.transact(19, input, output, 0);
+            binder.transact(TRANSACTION_RUMBLE_WITH_DURATION, input, output, 0);
 
             output.readException();
             return output.readInt() != 0;
@@ -103,38 +143,44 @@ class IExposedControllerBinderWrapper {
         }
     }
 
-    SceCategory getCategory(String controllerToken) throws RemoteException {
+    @Override
+    public SceCategory getCategory(String controllerToken) throws RemoteException {
         Parcel input = Parcel.obtain();
         Parcel output = Parcel.obtain();
         try {
-            input.writeInterfaceToken("com.nvidia.blakepairing.IExposedControllerBinder");
+            input.writeInterfaceToken(DESCRIPTOR);
             input.writeString(controllerToken);
 
-            binder.transact(11, input, output, 0);
+            binder.transact(TRANSACTION_GET_CATEGORY, input, output, 0);
 
             output.readException();
-            switch (output.readInt()) {
-                case 1:
-                    return SceCategory.CONTROLLER;
-                case 2:
-                    return SceCategory.REMOTE;
-                default:
-                    return SceCategory.UNKNOWN;
-            }
+            return decodeCategory(output.readInt());
         } finally {
             input.recycle();
             output.recycle();
         }
     }
 
-    String getNickname(String controllerToken) throws RemoteException {
+    private static SceCategory decodeCategory(int value) {
+        switch (value) {
+            case 1:
+                return SceCategory.CONTROLLER;
+            case 2:
+                return SceCategory.REMOTE;
+            default:
+                return SceCategory.UNKNOWN;
+        }
+    }
+
+    @Override
+    public String getNickname(String controllerToken) throws RemoteException {
         Parcel input = Parcel.obtain();
         Parcel output = Parcel.obtain();
         try {
-            input.writeInterfaceToken("com.nvidia.blakepairing.IExposedControllerBinder");
+            input.writeInterfaceToken(DESCRIPTOR);
             input.writeString(controllerToken);
 
-            binder.transact(3, input, output, 0);
+            binder.transact(TRANSACTION_GET_NICKNAME, input, output, 0);
 
             output.readException();
             return output.readString();
@@ -144,41 +190,33 @@ class IExposedControllerBinderWrapper {
         }
     }
 
-    int getBatteryPercentage(String controllerToken) throws RemoteException {
+    @Override
+    public String getBatteryState(String controllerToken) throws RemoteException {
         Parcel input = Parcel.obtain();
         Parcel output = Parcel.obtain();
         try {
-            input.writeInterfaceToken("com.nvidia.blakepairing.IExposedControllerBinder");
+            input.writeInterfaceToken(DESCRIPTOR);
             input.writeString(controllerToken);
 
-            binder.transact(28, input, output, 0);
+            binder.transact(TRANSACTION_GET_BATTERY_STATE, input, output, 0);
 
             output.readException();
-
-            String batteryState = output.readString();
-            if (batteryState != null && !batteryState.isEmpty()) {
-                try {
-                    return Integer.parseInt(batteryState.split(";")[0]);
-                } catch (NumberFormatException e) {
-                    e.printStackTrace();
-                }
-            }
-
-            return -1;
+            return output.readString();
         } finally {
             input.recycle();
             output.recycle();
         }
     }
 
-    SceChargingState getChargingState(String controllerToken) throws RemoteException {
+    @Override
+    public SceChargingState getChargingState(String controllerToken) throws RemoteException {
         Parcel input = Parcel.obtain();
         Parcel output = Parcel.obtain();
         try {
-            input.writeInterfaceToken("com.nvidia.blakepairing.IExposedControllerBinder");
+            input.writeInterfaceToken(DESCRIPTOR);
             input.writeString(controllerToken);
 
-            binder.transact(9, input, output, 0);
+            binder.transact(TRANSACTION_GET_CHARGING_STATE, input, output, 0);
 
             output.readException();
             switch (output.readInt()) {
@@ -195,14 +233,15 @@ class IExposedControllerBinderWrapper {
         }
     }
 
-    SceConnectionState getConnectionState(String controllerToken) throws RemoteException {
+    @Override
+    public SceConnectionState getConnectionState(String controllerToken) throws RemoteException {
         Parcel input = Parcel.obtain();
         Parcel output = Parcel.obtain();
         try {
-            input.writeInterfaceToken("com.nvidia.blakepairing.IExposedControllerBinder");
+            input.writeInterfaceToken(DESCRIPTOR);
             input.writeString(controllerToken);
 
-            binder.transact(10, input, output, 0);
+            binder.transact(TRANSACTION_GET_CONNECTION_STATE, input, output, 0);
 
             output.readException();
             switch (output.readInt()) {
@@ -219,40 +258,46 @@ class IExposedControllerBinderWrapper {
         }
     }
 
-    SceConnectionType getConnectionType(String controllerToken) throws RemoteException {
+    @Override
+    public SceConnectionType getConnectionType(String controllerToken) throws RemoteException {
         Parcel input = Parcel.obtain();
         Parcel output = Parcel.obtain();
         try {
-            input.writeInterfaceToken("com.nvidia.blakepairing.IExposedControllerBinder");
+            input.writeInterfaceToken(DESCRIPTOR);
             input.writeString(controllerToken);
 
-            binder.transact(11, input, output, 0);
+            binder.transact(TRANSACTION_GET_CONNECTION_TYPE, input, output, 0);
 
             output.readException();
-            switch (output.readInt()) {
-                case 1:
-                    return SceConnectionType.WIRED;
-                case 2:
-                    return SceConnectionType.WIRELESS;
-                case 3:
-                    return SceConnectionType.BOTH;
-                default:
-                    return SceConnectionType.UNKNOWN;
-            }
+            return decodeConnectionType(output.readInt());
         } finally {
             input.recycle();
             output.recycle();
         }
     }
 
-    boolean identify(String controllerToken) throws RemoteException {
+    private static SceConnectionType decodeConnectionType(int value) {
+        switch (value) {
+            case 1:
+                return SceConnectionType.WIRED;
+            case 2:
+                return SceConnectionType.WIRELESS;
+            case 3:
+                return SceConnectionType.BOTH;
+            default:
+                return SceConnectionType.UNKNOWN;
+        }
+    }
+
+    @Override
+    public boolean identify(String controllerToken) throws RemoteException {
         Parcel input = Parcel.obtain();
         Parcel output = Parcel.obtain();
         try {
-            input.writeInterfaceToken("com.nvidia.blakepairing.IExposedControllerBinder");
+            input.writeInterfaceToken(DESCRIPTOR);
             input.writeString(controllerToken);
 
-            binder.transact(14, input, output, 0);
+            binder.transact(TRANSACTION_IDENTIFY, input, output, 0);
 
             output.readException();
             return output.readInt() != 0;
@@ -262,14 +307,15 @@ class IExposedControllerBinderWrapper {
         }
     }
 
-    boolean hasHeadset(String controllerToken) throws RemoteException {
+    @Override
+    public boolean hasHeadset(String controllerToken) throws RemoteException {
         Parcel input = Parcel.obtain();
         Parcel output = Parcel.obtain();
         try {
-            input.writeInterfaceToken("com.nvidia.blakepairing.IExposedControllerBinder");
+            input.writeInterfaceToken(DESCRIPTOR);
             input.writeString(controllerToken);
 
-            binder.transact(31, input, output, 0);
+            binder.transact(TRANSACTION_HAS_HEADSET, input, output, 0);
 
             output.readException();
             return output.readInt() != 0;
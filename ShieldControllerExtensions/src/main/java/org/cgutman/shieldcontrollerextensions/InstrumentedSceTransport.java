@@ -0,0 +1,196 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import android.os.RemoteException;
+
+// SceTransport decorator that records the latency and failures of each transaction. A
+// transaction fails if it throws, or for commands that report success, if it returns false.
+class InstrumentedSceTransport implements SceTransport {
+    private final SceTransport transport;
+    private final StatsCollector stats;
+
+    InstrumentedSceTransport(SceTransport transport, StatsCollector stats) {
+        this.transport = transport;
+        this.stats = stats;
+    }
+
+    @Override
+    public int registerListener(Listener listener) throws RemoteException {
+        long startTime = System.nanoTime();
+        try {
+            return transport.registerListener(listener);
+        } catch (RemoteException e) {
+            stats.recordTransactionFailure(SceTransaction.REGISTER_LISTENER);
+            throw e;
+        } finally {
+            stats.recordTransaction(SceTransaction.REGISTER_LISTENER, startTime);
+        }
+    }
+
+    @Override
+    public boolean unregisterListener(int listenerId) throws RemoteException {
+        long startTime = System.nanoTime();
+        try {
+            return transport.unregisterListener(listenerId);
+        } catch (RemoteException e) {
+            stats.recordTransactionFailure(SceTransaction.UNREGISTER_LISTENER);
+            throw e;
+        } finally {
+            stats.recordTransaction(SceTransaction.UNREGISTER_LISTENER, startTime);
+        }
+    }
+
+    @Override
+    public int getInputDeviceId(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        try {
+            return transport.getInputDeviceId(controllerToken);
+        } catch (RemoteException e) {
+            stats.recordTransactionFailure(SceTransaction.GET_INPUT_DEVICE_ID);
+            throw e;
+        } finally {
+            stats.recordTransaction(SceTransaction.GET_INPUT_DEVICE_ID, startTime);
+        }
+    }
+
+    @Override
+    public boolean rumble(String controllerToken, int lowFreqMotor, int highFreqMotor) throws RemoteException {
+        long startTime = System.nanoTime();
+        try {
+            boolean success = transport.rumble(controllerToken, lowFreqMotor, highFreqMotor);
+            if (!success) {
+                stats.recordTransactionFailure(SceTransaction.RUMBLE);
+            }
+            return success;
+        } catch (RemoteException e) {
+            stats.recordTransactionFailure(SceTransaction.RUMBLE);
+            throw e;
+        } finally {
+            stats.recordTransaction(SceTransaction.RUMBLE, startTime);
+        }
+    }
+
+    @Override
+    public boolean rumbleWithDuration(String controllerToken, int lowFreqMotor, int highFreqMotor, long durationMs) throws RemoteException {
+        long startTime = System.nanoTime();
+        try {
+            boolean success = transport.rumbleWithDuration(controllerToken, lowFreqMotor, highFreqMotor, durationMs);
+            if (!success) {
+                stats.recordTransactionFailure(SceTransaction.RUMBLE_WITH_DURATION);
+            }
+            return success;
+        } catch (RemoteException e) {
+            stats.recordTransactionFailure(SceTransaction.RUMBLE_WITH_DURATION);
+            throw e;
+        } finally {
+            stats.recordTransaction(SceTransaction.RUMBLE_WITH_DURATION, startTime);
+        }
+    }
+
+    @Override
+    public SceCategory getCategory(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        try {
+            return transport.getCategory(controllerToken);
+        } catch (RemoteException e) {
+            stats.recordTransactionFailure(SceTransaction.GET_CATEGORY);
+            throw e;
+        } finally {
+            stats.recordTransaction(SceTransaction.GET_CATEGORY, startTime);
+        }
+    }
+
+    @Override
+    public String getNickname(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        try {
+            return transport.getNickname(controllerToken);
+        } catch (RemoteException e) {
+            stats.recordTransactionFailure(SceTransaction.GET_NICKNAME);
+            throw e;
+        } finally {
+            stats.recordTransaction(SceTransaction.GET_NICKNAME, startTime);
+        }
+    }
+
+    @Override
+    public String getBatteryState(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        try {
+            return transport.getBatteryState(controllerToken);
+        } catch (RemoteException e) {
+            stats.recordTransactionFailure(SceTransaction.GET_BATTERY_STATE);
+            throw e;
+        } finally {
+            stats.recordTransaction(SceTransaction.GET_BATTERY_STATE, startTime);
+        }
+    }
+
+    @Override
+    public SceChargingState getChargingState(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        try {
+            return transport.getChargingState(controllerToken);
+        } catch (RemoteException e) {
+            stats.recordTransactionFailure(SceTransaction.GET_CHARGING_STATE);
+            throw e;
+        } finally {
+            stats.recordTransaction(SceTransaction.GET_CHARGING_STATE, startTime);
+        }
+    }
+
+    @Override
+    public SceConnectionState getConnectionState(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        try {
+            return transport.getConnectionState(controllerToken);
+        } catch (RemoteException e) {
+            stats.recordTransactionFailure(SceTransaction.GET_CONNECTION_STATE);
+            throw e;
+        } finally {
+            stats.recordTransaction(SceTransaction.GET_CONNECTION_STATE, startTime);
+        }
+    }
+
+    @Override
+    public SceConnectionType getConnectionType(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        try {
+            return transport.getConnectionType(controllerToken);
+        } catch (RemoteException e) {
+            stats.recordTransactionFailure(SceTransaction.GET_CONNECTION_TYPE);
+            throw e;
+        } finally {
+            stats.recordTransaction(SceTransaction.GET_CONNECTION_TYPE, startTime);
+        }
+    }
+
+    @Override
+    public boolean identify(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        try {
+            boolean success = transport.identify(controllerToken);
+            if (!success) {
+                stats.recordTransactionFailure(SceTransaction.IDENTIFY);
+            }
+            return success;
+        } catch (RemoteException e) {
+            stats.recordTransactionFailure(SceTransaction.IDENTIFY);
+            throw e;
+        } finally {
+            stats.recordTransaction(SceTransaction.IDENTIFY, startTime);
+        }
+    }
+
+    @Override
+    public boolean hasHeadset(String controllerToken) throws RemoteException {
+        long startTime = System.nanoTime();
+        try {
+            return transport.hasHeadset(controllerToken);
+        } catch (RemoteException e) {
+            stats.recordTransactionFailure(SceTransaction.HAS_HEADSET);
+            throw e;
+        } finally {
+            stats.recordTransaction(SceTransaction.HAS_HEADSET, startTime);
+        }
+    }
+}
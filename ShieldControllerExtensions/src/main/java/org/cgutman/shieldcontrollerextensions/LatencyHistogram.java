@@ -0,0 +1,44 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free latency histogram with fixed power-of-two buckets.
+//
+// Bucket 0 counts samples under 1 us, and bucket i counts samples from 2^(i-1) us up to
+// (but not including) 2^i us. The last bucket also counts everything above its range.
+// Recording a sample is two atomic adds and never allocates.
+class LatencyHistogram {
+    static final int BUCKET_COUNT = 20;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalTimeNanos = new AtomicLong();
+
+    static int getBucketIndex(long latencyUs) {
+        if (latencyUs <= 0) {
+            return 0;
+        }
+        return Math.min(64 - Long.numberOfLeadingZeros(latencyUs), BUCKET_COUNT - 1);
+    }
+
+    // Returns the exclusive upper bound of the bucket or Long.MAX_VALUE for the last bucket
+    static long getBucketUpperBoundUs(int index) {
+        return index < BUCKET_COUNT - 1 ? 1L << index : Long.MAX_VALUE;
+    }
+
+    void record(long latencyNanos) {
+        buckets.incrementAndGet(getBucketIndex(latencyNanos / 1000));
+        totalTimeNanos.addAndGet(latencyNanos);
+    }
+
+    // Copies the bucket counts into the provided array and returns the total time recorded.
+    // The copy is not atomic with respect to concurrent samples, so it may be off by a few
+    // samples recorded during the copy.
+    long copyTo(long[] bucketCounts) {
+        long totalTime = totalTimeNanos.get();
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            bucketCounts[i] = buckets.get(i);
+        }
+        return totalTime;
+    }
+}
@@ -0,0 +1,923 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import android.os.RemoteException;
+
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Tracks the rumble state of each controller and keeps active rumble effects going.
+//
+// NVIDIA only supports rumble for 1.5 seconds at a time, so we must periodically resend the
+// last rumble command until the caller explicitly stops it. Rather than using a timer per
+// controller, we keep one entry per controller token that is updated in place and use a
+// single tick on the provided TaskScheduler to service all of them.
+//
+// Rumble commands are also coalesced here. A command matching what the controller is
+// already playing is dropped, and commands arriving faster than the rate limit are held
+// in the entry (replacing any older held command) until the tick can send them.
+//
+// Keepalives are sent with the maximum rumble duration and scheduled just early enough to
+// reach the controller before the previous command expires. The margin is derived from the
+// measured round-trip time of our rumble transactions, so the keepalive interval adapts to
+// how responsive the Shield Accessories service is.
+//
+// Asynchronous rumble commands are always held in the entry and sent by the tick, so the
+// TaskScheduler thread is the single writer for each controller's asynchronous commands.
+//
+// An entry's lock is never held during a transaction. The command to send is taken from
+// the entry and marked in flight under the lock, the transaction is made without it, and
+// the outcome is recorded under the lock again. While a command is in flight, further
+// commands for the controller are held in the entry and sent by the tick once it completes,
+// so queuing a command never waits on IPC.
+//
+// Haptic effects are played by the same tick. While an effect is playing, the tick samples
+// it at a bounded rate and queues a rumble command only when the effect has moved away
+// from what the controller is playing by more than a small tolerance (or to or from 0).
+// These commands go through the rate limit and keepalives like any other.
+//
+// Each controller can be rumbled by several named channels at once (gameplay, UI, etc).
+// Every command updates its channel, and what gets sent to the controller is the mix of
+// all channels according to the mix mode. Plain rumble commands and effects use the
+// default channel. Since only the mixed result is sent, a channel update that doesn't
+// change the mix costs no IPC, and updates from several channels within the rate limit
+// are coalesced into one transaction.
+//
+// Group rumble commands are held until every controller in the group can be sent to, so
+// the tick sends them back-to-back. Keepalives that are nearly due are sent together with
+// ones that are due, so the keepalives of controllers rumbled together stay together.
+//
+// Impulses are short rumbles that the service stops on its own, so they need no entry,
+// keepalive, or stop command. If the controller has a rumble effect being kept alive, the
+// impulse interrupts it and the next keepalive is moved to when the impulse ends.
+class RumbleEngine {
+    static final long RUMBLE_DURATION_MS = 1500;
+    // Extra margin for scheduling delays on our side, in addition to the RTT-based margin
+    private static final long KEEPALIVE_SLACK_MS = 100;
+    // Keepalives are never sent more often than this, regardless of the measured RTT
+    private static final long MIN_KEEPALIVE_INTERVAL_MS = 500;
+    // Keepalives due within this long are sent early to share a tick with others
+    private static final long KEEPALIVE_COALESCING_WINDOW_MS = 20;
+    static final int DEFAULT_MAX_RUMBLES_PER_SECOND = 30;
+    // Effects are sampled at most this often, or at the rate limit if it is lower
+    private static final long MIN_EFFECT_SAMPLE_INTERVAL_MS = 16;
+    // Effect amplitude changes smaller than this aren't sent
+    private static final int EFFECT_TOLERANCE = 1024;
+    static final String DEFAULT_CHANNEL = "default";
+
+    private final TaskScheduler scheduler;
+    private final EventJournal journal;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private volatile SceTransport transport;
+    private volatile long minSendIntervalMs = 1000 / DEFAULT_MAX_RUMBLES_PER_SECOND;
+    private volatile SceRumbleMixMode mixMode = SceRumbleMixMode.MAX;
+
+    // Smoothed rumble transaction round-trip time and its mean deviation in microseconds,
+    // maintained like TCP's SRTT and RTTVAR (RFC 6298). Guarded by rttLock.
+    private final Object rttLock = new Object();
+    private long smoothedRttUs = -1;
+    private long rttVarianceUs;
+
+    // The deadline of the earliest tick that has been posted and not yet run, or
+    // Long.MAX_VALUE if no tick is pending. Guarded by tickLock.
+    private final Object tickLock = new Object();
+    private long pendingTickTime = Long.MAX_VALUE;
+
+    private final Runnable tickRunnable = new Runnable() {
+        @Override
+        public void run() {
+            long now = scheduler.uptimeMillis();
+
+            synchronized (tickLock) {
+                // If an earlier tick was posted after this one, this one is stale
+                // and the other has already taken care of scheduling the next tick.
+                if (now < pendingTickTime) {
+                    return;
+                }
+                pendingTickTime = Long.MAX_VALUE;
+            }
+
+            long nextTickTime = Long.MAX_VALUE;
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                long entryTickTime = serviceEntry(mapEntry.getKey(), mapEntry.getValue(), now);
+                if (entryTickTime < nextTickTime) {
+                    nextTickTime = entryTickTime;
+                }
+            }
+
+            if (nextTickTime != Long.MAX_VALUE) {
+                scheduleTick(nextTickTime);
+            }
+        }
+    };
+
+    private static class Channel {
+        final String name;
+        int priority;
+        int lowFreqMotor;
+        int highFreqMotor;
+        // Breaks ties between channels of equal priority in favor of the latest update
+        long updateSequence;
+
+        Channel(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Entry {
+        // The last rumble command successfully sent to the controller
+        int lowFreqMotor;
+        int highFreqMotor;
+        // Set if the controller is known to be playing the last rumble command
+        boolean confirmed;
+        // Set if the last rumble command must be kept alive
+        boolean active;
+        long lastSendTime = Long.MIN_VALUE;
+        long nextKeepaliveTime;
+        // Keepalives must not be sent early while an impulse is playing
+        long impulseEndTime;
+        // Set while a command for the controller is in flight. Callers that may block wait
+        // on the entry for this to be cleared.
+        boolean sending;
+
+        // The latest rumble command that is waiting for the rate limit to allow it
+        boolean hasPending;
+        int pendingLowFreqMotor;
+        int pendingHighFreqMotor;
+        // The pending command is held until this time so it's sent with the rest of its group
+        long pendingNotBefore;
+
+        // Callbacks waiting on the outcome of the pending command. This is only
+        // allocated when a caller provides a callback.
+        ArrayList<SceManager.SceRumbleCallback> pendingCallbacks;
+
+        // Channels with a nonzero rumble command and the current mix of them
+        final ArrayList<Channel> channels = new ArrayList<>(1);
+        long channelUpdateSequence;
+        int mixedLowFreqMotor;
+        int mixedHighFreqMotor;
+
+        // The haptic effect being played on the default channel, if any
+        SceHapticEffect effect;
+        long effectStartTime;
+        long nextEffectSampleTime;
+    }
+
+    RumbleEngine(TaskScheduler scheduler, EventJournal journal) {
+        this.scheduler = scheduler;
+        this.journal = journal;
+    }
+
+    void setTransport(SceTransport transport) {
+        this.transport = transport;
+    }
+
+    // Sets the maximum number of rumble transactions sent per second to each controller.
+    // A value of 0 disables rate limiting.
+    void setMaxRumblesPerSecond(int maxRumblesPerSecond) {
+        minSendIntervalMs = maxRumblesPerSecond > 0 ? 1000 / maxRumblesPerSecond : 0;
+    }
+
+    // Sets how channels are mixed and applies it to all controllers
+    void setMixMode(SceRumbleMixMode mixMode) {
+        this.mixMode = mixMode;
+
+        long nextTickTime = Long.MAX_VALUE;
+        for (Entry entry : entries.values()) {
+            synchronized (entry) {
+                mixLocked(entry);
+                nextTickTime = Math.min(nextTickTime, queueMixLocked(entry));
+            }
+        }
+        if (nextTickTime != Long.MAX_VALUE) {
+            scheduleTick(nextTickTime);
+        }
+    }
+
+    boolean rumble(String controllerToken, int lowFreqMotor, int highFreqMotor) throws RemoteException {
+        return rumble(controllerToken, DEFAULT_CHANNEL, 0, lowFreqMotor, highFreqMotor);
+    }
+
+    // Updates the channel and sends the resulting mix. Returns false if the rumble command
+    // failed. If the command was deferred by the rate limit, true is returned and any failure
+    // will occur asynchronously.
+    boolean rumble(String controllerToken, String channel, int priority, int channelLowFreqMotor, int channelHighFreqMotor) throws RemoteException {
+        Entry entry = getOrCreateEntry(controllerToken);
+        ArrayList<SceManager.SceRumbleCallback> supersededCallbacks;
+        long nextTickTime;
+        boolean send = false;
+        int lowFreqMotor;
+        int highFreqMotor;
+        int journalCode = 0;
+        long now;
+
+        synchronized (entry) {
+            // A command on the default channel supersedes any effect being played
+            if (DEFAULT_CHANNEL.equals(channel)) {
+                entry.effect = null;
+            }
+            setChannelLocked(entry, channel, priority, channelLowFreqMotor, channelHighFreqMotor);
+            lowFreqMotor = entry.mixedLowFreqMotor;
+            highFreqMotor = entry.mixedHighFreqMotor;
+
+            // This command supersedes any command still waiting to be sent. Those callers
+            // will be told the outcome of this command instead.
+            entry.hasPending = false;
+            supersededCallbacks = entry.pendingCallbacks;
+            entry.pendingCallbacks = null;
+
+            now = scheduler.uptimeMillis();
+            long nextSendTime = entry.lastSendTime + minSendIntervalMs;
+            if (entry.confirmed && entry.lowFreqMotor == lowFreqMotor && entry.highFreqMotor == highFreqMotor) {
+                // Nothing to do if the controller is already playing this
+                nextTickTime = Long.MAX_VALUE;
+            }
+            else if (entry.sending) {
+                // Hold it until the command in flight completes, which will schedule the tick
+                setPendingLocked(entry, lowFreqMotor, highFreqMotor, supersededCallbacks);
+                supersededCallbacks = null;
+                nextTickTime = Long.MAX_VALUE;
+            }
+            else if (entry.lastSendTime != Long.MIN_VALUE && now < nextSendTime) {
+                // Too soon to send another command, so hold it until the next tick
+                setPendingLocked(entry, lowFreqMotor, highFreqMotor, supersededCallbacks);
+                supersededCallbacks = null;
+                nextTickTime = nextSendTime;
+            }
+            else {
+                journalCode = beginSendLocked(entry, lowFreqMotor, highFreqMotor, now);
+                send = true;
+                nextTickTime = Long.MAX_VALUE;
+            }
+        }
+
+        boolean success = true;
+        if (send) {
+            try {
+                success = send(controllerToken, journalCode, lowFreqMotor, highFreqMotor);
+            } catch (RemoteException e) {
+                synchronized (entry) {
+                    nextTickTime = endSendLocked(entry, lowFreqMotor, highFreqMotor, now, false);
+                }
+                completeCallbacks(supersededCallbacks, false);
+                if (nextTickTime != Long.MAX_VALUE) {
+                    scheduleTick(nextTickTime);
+                }
+                throw e;
+            }
+
+            synchronized (entry) {
+                nextTickTime = endSendLocked(entry, lowFreqMotor, highFreqMotor, now, success);
+            }
+        }
+
+        completeCallbacks(supersededCallbacks, success);
+        if (nextTickTime != Long.MAX_VALUE) {
+            scheduleTick(nextTickTime);
+        }
+        return success;
+    }
+
+    void rumbleAsync(String controllerToken, int lowFreqMotor, int highFreqMotor, SceManager.SceRumbleCallback callback) {
+        rumbleAsync(controllerToken, DEFAULT_CHANNEL, 0, lowFreqMotor, highFreqMotor, callback);
+    }
+
+    // Updates the channel and queues the resulting mix to be sent from the TaskScheduler
+    // thread. The optional callback is invoked with the outcome of this command or of the
+    // command that supersedes it if a newer one is issued before this one is sent.
+    void rumbleAsync(String controllerToken, String channel, int priority, int channelLowFreqMotor, int channelHighFreqMotor,
+                     SceManager.SceRumbleCallback callback) {
+        Entry entry = getOrCreateEntry(controllerToken);
+        ArrayList<SceManager.SceRumbleCallback> supersededCallbacks;
+        long nextTickTime;
+
+        synchronized (entry) {
+            if (DEFAULT_CHANNEL.equals(channel)) {
+                entry.effect = null;
+            }
+            setChannelLocked(entry, channel, priority, channelLowFreqMotor, channelHighFreqMotor);
+            int lowFreqMotor = entry.mixedLowFreqMotor;
+            int highFreqMotor = entry.mixedHighFreqMotor;
+
+            supersededCallbacks = entry.pendingCallbacks;
+            entry.pendingCallbacks = null;
+            if (callback != null) {
+                if (supersededCallbacks == null) {
+                    supersededCallbacks = new ArrayList<>(1);
+                }
+                supersededCallbacks.add(callback);
+            }
+
+            if (entry.confirmed && entry.lowFreqMotor == lowFreqMotor && entry.highFreqMotor == highFreqMotor) {
+                // Nothing to do if the controller is already playing this
+                entry.hasPending = false;
+                nextTickTime = Long.MAX_VALUE;
+            }
+            else {
+                setPendingLocked(entry, lowFreqMotor, highFreqMotor, supersededCallbacks);
+                supersededCallbacks = null;
+                nextTickTime = entry.lastSendTime != Long.MIN_VALUE ?
+                        Math.max(scheduler.uptimeMillis(), entry.lastSendTime + minSendIntervalMs) :
+                        scheduler.uptimeMillis();
+            }
+        }
+
+        completeCallbacks(supersededCallbacks, true);
+        if (nextTickTime != Long.MAX_VALUE) {
+            scheduleTick(nextTickTime);
+        }
+    }
+
+    // Queues a rumble command on the default channel of each controller. The commands are
+    // sent back-to-back from a single tick once the rate limit allows all of them.
+    void rumbleGroup(String[] controllerTokens, int lowFreqMotor, int highFreqMotor) {
+        Entry[] groupEntries = new Entry[controllerTokens.length];
+        long sendTime = scheduler.uptimeMillis();
+        for (int i = 0; i < controllerTokens.length; i++) {
+            groupEntries[i] = getOrCreateEntry(controllerTokens[i]);
+            synchronized (groupEntries[i]) {
+                if (groupEntries[i].lastSendTime != Long.MIN_VALUE) {
+                    sendTime = Math.max(sendTime, groupEntries[i].lastSendTime + minSendIntervalMs);
+                }
+            }
+        }
+
+        boolean needsTick = false;
+        for (Entry entry : groupEntries) {
+            synchronized (entry) {
+                entry.effect = null;
+                setChannelLocked(entry, DEFAULT_CHANNEL, 0, lowFreqMotor, highFreqMotor);
+                if (queueMixLocked(entry) != Long.MAX_VALUE) {
+                    entry.pendingNotBefore = sendTime;
+                    needsTick = true;
+                }
+            }
+        }
+
+        if (needsTick) {
+            scheduleTick(sendTime);
+        }
+    }
+
+    // Plays a rumble that the service stops after the duration. Returns false if it failed.
+    boolean rumbleImpulse(String controllerToken, int lowFreqMotor, int highFreqMotor, long durationMs) throws RemoteException {
+        SceTransport transport = this.transport;
+        if (transport == null) {
+            return false;
+        }
+
+        Entry entry = entries.get(controllerToken);
+        if (entry == null) {
+            // Nothing else is rumbling this controller, so there's no state to update
+            return sendImpulse(transport, controllerToken, lowFreqMotor, highFreqMotor, durationMs);
+        }
+
+        long now;
+        synchronized (entry) {
+            // A command in flight could land after the impulse and cut it short
+            if (!awaitSendLocked(entry)) {
+                return false;
+            }
+            entry.sending = true;
+            now = scheduler.uptimeMillis();
+        }
+
+        boolean success = false;
+        long nextTickTime;
+        try {
+            success = sendImpulse(transport, controllerToken, lowFreqMotor, highFreqMotor, durationMs);
+        } finally {
+            synchronized (entry) {
+                entry.sending = false;
+                entry.notifyAll();
+                if (success) {
+                    // The controller is no longer playing the last command, so the next one
+                    // must be sent even if it matches
+                    entry.confirmed = false;
+                    entry.lastSendTime = now;
+                    entry.impulseEndTime = now + durationMs;
+                    if (entry.active) {
+                        // Resume the interrupted rumble when the impulse ends
+                        entry.nextKeepaliveTime = entry.impulseEndTime;
+                    }
+                }
+
+                // Commands queued while the impulse was in flight are sent by the tick
+                nextTickTime = getNextServiceTimeLocked(entry);
+            }
+        }
+
+        if (nextTickTime != Long.MAX_VALUE) {
+            scheduleTick(nextTickTime);
+        }
+        return success;
+    }
+
+    private boolean sendImpulse(SceTransport transport, String controllerToken, int lowFreqMotor, int highFreqMotor, long durationMs) throws RemoteException {
+        boolean success;
+        try {
+            success = transport.rumbleWithDuration(controllerToken, lowFreqMotor, highFreqMotor, durationMs);
+        } catch (RemoteException e) {
+            journal.record(EventJournal.RUMBLE_IMPULSE, controllerToken, lowFreqMotor, highFreqMotor, EventJournal.RESULT_EXCEPTION);
+            throw e;
+        }
+        journal.record(EventJournal.RUMBLE_IMPULSE, controllerToken, lowFreqMotor, highFreqMotor,
+                success ? EventJournal.RESULT_SUCCESS : EventJournal.RESULT_FAILURE);
+        return success;
+    }
+
+    // Starts playing a haptic effect on the default channel, replacing any effect or
+    // rumble command in progress on that channel
+    void playEffect(String controllerToken, SceHapticEffect effect) {
+        Entry entry = getOrCreateEntry(controllerToken);
+        long now = scheduler.uptimeMillis();
+
+        synchronized (entry) {
+            entry.effect = effect;
+            entry.effectStartTime = now;
+            entry.nextEffectSampleTime = now;
+        }
+
+        journal.record(EventJournal.EFFECT_STARTED, controllerToken, (int) Math.min(effect.getDurationMs(), Integer.MAX_VALUE),
+                effect.isLooping() ? 1 : 0, EventJournal.RESULT_NONE);
+        scheduleTick(now);
+    }
+
+    // Stops the haptic effect being played, if any, and returns true if one was playing
+    boolean cancelEffect(String controllerToken) {
+        Entry entry = entries.get(controllerToken);
+        if (entry == null) {
+            return false;
+        }
+
+        long nextTickTime;
+        synchronized (entry) {
+            if (entry.effect == null) {
+                return false;
+            }
+
+            entry.effect = null;
+            setChannelLocked(entry, DEFAULT_CHANNEL, 0, 0, 0);
+            nextTickTime = queueMixLocked(entry);
+        }
+
+        journal.record(EventJournal.EFFECT_CANCELED, controllerToken);
+        if (nextTickTime != Long.MAX_VALUE) {
+            scheduleTick(nextTickTime);
+        }
+        return true;
+    }
+
+    // Stops keepalives for the controller without sending a rumble stop command
+    void removeController(String controllerToken) {
+        Entry entry = entries.remove(controllerToken);
+        if (entry != null) {
+            ArrayList<SceManager.SceRumbleCallback> callbacks;
+            synchronized (entry) {
+                entry.active = false;
+                entry.hasPending = false;
+                entry.effect = null;
+                callbacks = entry.pendingCallbacks;
+                entry.pendingCallbacks = null;
+            }
+            completeCallbacks(callbacks, false);
+        }
+    }
+
+    // Forgets what every controller is playing while keeping their rumble channels, so
+    // resume() can restart the rumble once the controller is back. Used when the service
+    // goes away, so no commands are sent. Haptic effects are not resumed.
+    void suspend() {
+        for (Entry entry : entries.values()) {
+            ArrayList<SceManager.SceRumbleCallback> callbacks;
+            synchronized (entry) {
+                entry.hasPending = false;
+                callbacks = entry.pendingCallbacks;
+                entry.pendingCallbacks = null;
+                if (entry.effect != null) {
+                    entry.effect = null;
+                    setChannelLocked(entry, DEFAULT_CHANNEL, 0, 0, 0);
+                }
+                entry.active = false;
+                entry.confirmed = false;
+                entry.impulseEndTime = 0;
+            }
+            completeCallbacks(callbacks, false);
+        }
+    }
+
+    // Restarts the rumble that was playing on the controller before suspend()
+    void resume(String controllerToken) {
+        Entry entry = entries.get(controllerToken);
+        if (entry == null) {
+            return;
+        }
+
+        long nextTickTime = Long.MAX_VALUE;
+        synchronized (entry) {
+            if (!entry.confirmed && !entry.hasPending && (entry.mixedLowFreqMotor != 0 || entry.mixedHighFreqMotor != 0)) {
+                nextTickTime = queueMixLocked(entry);
+            }
+        }
+        if (nextTickTime != Long.MAX_VALUE) {
+            scheduleTick(nextTickTime);
+        }
+    }
+
+    // Stops all keepalives and sends a rumble stop command for any active rumble effects
+    void stopAll() {
+        SceTransport transport = this.transport;
+
+        for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+            Entry entry = mapEntry.getValue();
+            ArrayList<SceManager.SceRumbleCallback> callbacks;
+            boolean sendStop;
+            synchronized (entry) {
+                // Let a command in flight complete first, so it can't restart the rumble
+                // after our stop command. If we're interrupted, stop it anyway.
+                awaitSendLocked(entry);
+
+                entry.hasPending = false;
+                entry.effect = null;
+                callbacks = entry.pendingCallbacks;
+                entry.pendingCallbacks = null;
+
+                // If our transport is still alive, send the rumble stop command
+                sendStop = entry.active && transport != null;
+                entry.active = false;
+                entry.confirmed = false;
+                if (sendStop) {
+                    entry.sending = true;
+                }
+            }
+
+            if (sendStop) {
+                try {
+                    boolean success = transport.rumble(mapEntry.getKey(), 0, 0);
+                    journal.record(EventJournal.RUMBLE, mapEntry.getKey(), 0, 0,
+                            success ? EventJournal.RESULT_SUCCESS : EventJournal.RESULT_FAILURE);
+                } catch (RemoteException e) {
+                    journal.record(EventJournal.RUMBLE, mapEntry.getKey(), 0, 0, EventJournal.RESULT_EXCEPTION);
+                    e.printStackTrace();
+                }
+
+                synchronized (entry) {
+                    entry.sending = false;
+                    entry.notifyAll();
+                }
+            }
+            completeCallbacks(callbacks, false);
+        }
+        entries.clear();
+    }
+
+    // Returns the number of controllers with rumble effects being kept alive
+    int getActiveCount() {
+        int activeCount = 0;
+        for (Entry entry : entries.values()) {
+            synchronized (entry) {
+                if (entry.active) {
+                    activeCount++;
+                }
+            }
+        }
+        return activeCount;
+    }
+
+    private Entry getOrCreateEntry(String controllerToken) {
+        Entry entry = entries.get(controllerToken);
+        if (entry == null) {
+            Entry newEntry = new Entry();
+            entry = entries.putIfAbsent(controllerToken, newEntry);
+            if (entry == null) {
+                entry = newEntry;
+            }
+        }
+        return entry;
+    }
+
+    // Updates a channel and recomputes the mix. Channels are dropped when they stop rumbling.
+    private void setChannelLocked(Entry entry, String name, int priority, int lowFreqMotor, int highFreqMotor) {
+        Channel channel = null;
+        int index;
+        for (index = 0; index < entry.channels.size(); index++) {
+            if (entry.channels.get(index).name.equals(name)) {
+                channel = entry.channels.get(index);
+                break;
+            }
+        }
+
+        if (lowFreqMotor == 0 && highFreqMotor == 0) {
+            if (channel != null) {
+                entry.channels.remove(index);
+            }
+        }
+        else {
+            if (channel == null) {
+                channel = new Channel(name);
+                entry.channels.add(channel);
+            }
+            channel.priority = priority;
+            channel.lowFreqMotor = lowFreqMotor;
+            channel.highFreqMotor = highFreqMotor;
+            channel.updateSequence = ++entry.channelUpdateSequence;
+        }
+
+        mixLocked(entry);
+    }
+
+    private void mixLocked(Entry entry) {
+        int lowFreqMotor = 0;
+        int highFreqMotor = 0;
+
+        switch (mixMode) {
+            case MAX:
+                for (int i = 0; i < entry.channels.size(); i++) {
+                    Channel channel = entry.channels.get(i);
+                    lowFreqMotor = Math.max(lowFreqMotor, channel.lowFreqMotor);
+                    highFreqMotor = Math.max(highFreqMotor, channel.highFreqMotor);
+                }
+                break;
+            case SUM:
+                for (int i = 0; i < entry.channels.size(); i++) {
+                    Channel channel = entry.channels.get(i);
+                    lowFreqMotor = Math.min(65535, lowFreqMotor + channel.lowFreqMotor);
+                    highFreqMotor = Math.min(65535, highFreqMotor + channel.highFreqMotor);
+                }
+                break;
+            case PRIORITY: {
+                Channel winner = null;
+                for (int i = 0; i < entry.channels.size(); i++) {
+                    Channel channel = entry.channels.get(i);
+                    if (winner == null || channel.priority > winner.priority ||
+                            (channel.priority == winner.priority && channel.updateSequence > winner.updateSequence)) {
+                        winner = channel;
+                    }
+                }
+                if (winner != null) {
+                    lowFreqMotor = winner.lowFreqMotor;
+                    highFreqMotor = winner.highFreqMotor;
+                }
+                break;
+            }
+        }
+
+        entry.mixedLowFreqMotor = lowFreqMotor;
+        entry.mixedHighFreqMotor = highFreqMotor;
+    }
+
+    // Queues the current mix to be sent if it differs from what the controller is playing
+    // or is about to play. Returns when the tick needs to run, or Long.MAX_VALUE if it doesn't.
+    private long queueMixLocked(Entry entry) {
+        if (entry.hasPending ?
+                entry.pendingLowFreqMotor == entry.mixedLowFreqMotor && entry.pendingHighFreqMotor == entry.mixedHighFreqMotor :
+                entry.confirmed && entry.lowFreqMotor == entry.mixedLowFreqMotor && entry.highFreqMotor == entry.mixedHighFreqMotor) {
+            return Long.MAX_VALUE;
+        }
+
+        setPendingLocked(entry, entry.mixedLowFreqMotor, entry.mixedHighFreqMotor, entry.pendingCallbacks);
+        return entry.lastSendTime != Long.MIN_VALUE ?
+                Math.max(scheduler.uptimeMillis(), entry.lastSendTime + minSendIntervalMs) :
+                scheduler.uptimeMillis();
+    }
+
+    private static void setPendingLocked(Entry entry, int lowFreqMotor, int highFreqMotor, ArrayList<SceManager.SceRumbleCallback> callbacks) {
+        entry.hasPending = true;
+        entry.pendingNotBefore = 0;
+        entry.pendingLowFreqMotor = lowFreqMotor;
+        entry.pendingHighFreqMotor = highFreqMotor;
+        entry.pendingCallbacks = callbacks;
+    }
+
+    private static void completeCallbacks(ArrayList<SceManager.SceRumbleCallback> callbacks, boolean success) {
+        if (callbacks != null) {
+            for (int i = 0; i < callbacks.size(); i++) {
+                callbacks.get(i).onRumbleComplete(success);
+            }
+        }
+    }
+
+    // Marks a rumble command as in flight and returns its journal code. The caller must send
+    // it with send() after releasing the entry's lock, then call endSendLocked().
+    private static int beginSendLocked(Entry entry, int lowFreqMotor, int highFreqMotor, long now) {
+        int journalCode = entry.active && entry.lowFreqMotor == lowFreqMotor && entry.highFreqMotor == highFreqMotor ?
+                EventJournal.RUMBLE_KEEPALIVE : EventJournal.RUMBLE;
+
+        // The previous rumble effect is superseded regardless of whether this one succeeds
+        entry.active = false;
+        entry.confirmed = false;
+        entry.lastSendTime = now;
+        entry.sending = true;
+        return journalCode;
+    }
+
+    // Records the outcome of a command started by beginSendLocked() and returns when the
+    // entry next needs servicing, or Long.MAX_VALUE if it doesn't need any
+    private long endSendLocked(Entry entry, int lowFreqMotor, int highFreqMotor, long now, boolean success) {
+        entry.sending = false;
+        entry.notifyAll();
+
+        if (success) {
+            entry.lowFreqMotor = lowFreqMotor;
+            entry.highFreqMotor = highFreqMotor;
+            entry.confirmed = true;
+            entry.active = lowFreqMotor != 0 || highFreqMotor != 0;
+            entry.nextKeepaliveTime = now + getKeepaliveIntervalMs();
+        }
+        return getNextServiceTimeLocked(entry);
+    }
+
+    // Waits for the command in flight for the entry, if any, to complete. This is only used
+    // by calls that block on IPC anyway. Returns false if the thread was interrupted.
+    private static boolean awaitSendLocked(Entry entry) {
+        while (entry.sending) {
+            try {
+                entry.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Returns when the entry next needs servicing, or Long.MAX_VALUE if it doesn't need any
+    private long getNextServiceTimeLocked(Entry entry) {
+        long nextServiceTime = entry.active ? entry.nextKeepaliveTime : Long.MAX_VALUE;
+        if (entry.hasPending) {
+            nextServiceTime = Math.min(nextServiceTime,
+                    Math.max(entry.lastSendTime + minSendIntervalMs, entry.pendingNotBefore));
+        }
+        if (entry.effect != null) {
+            nextServiceTime = Math.min(nextServiceTime, entry.nextEffectSampleTime);
+        }
+        return nextServiceTime;
+    }
+
+    // Sends a rumble command without holding the entry's lock
+    private boolean send(String controllerToken, int journalCode, int lowFreqMotor, int highFreqMotor) throws RemoteException {
+        SceTransport transport = this.transport;
+        if (transport == null) {
+            return false;
+        }
+
+        boolean success;
+        try {
+            if (lowFreqMotor == 0 && highFreqMotor == 0) {
+                success = transport.rumble(controllerToken, 0, 0);
+            }
+            else {
+                long startTime = System.nanoTime();
+                success = transport.rumbleWithDuration(controllerToken, lowFreqMotor, highFreqMotor, RUMBLE_DURATION_MS);
+                if (success) {
+                    updateRtt((System.nanoTime() - startTime) / 1000);
+                }
+            }
+        } catch (RemoteException e) {
+            journal.record(journalCode, controllerToken, lowFreqMotor, highFreqMotor, EventJournal.RESULT_EXCEPTION);
+            throw e;
+        }
+
+        journal.record(journalCode, controllerToken, lowFreqMotor, highFreqMotor,
+                success ? EventJournal.RESULT_SUCCESS : EventJournal.RESULT_FAILURE);
+        return success;
+    }
+
+    private void updateRtt(long rttUs) {
+        synchronized (rttLock) {
+            if (smoothedRttUs < 0) {
+                smoothedRttUs = rttUs;
+                rttVarianceUs = rttUs / 2;
+            }
+            else {
+                rttVarianceUs += (Math.abs(smoothedRttUs - rttUs) - rttVarianceUs) / 4;
+                smoothedRttUs += (rttUs - smoothedRttUs) / 8;
+            }
+        }
+    }
+
+    // Returns how long after a successful rumble command the keepalive should be sent
+    private long getKeepaliveIntervalMs() {
+        long rttMarginUs;
+        synchronized (rttLock) {
+            rttMarginUs = smoothedRttUs + 4 * rttVarianceUs;
+        }
+        return Math.max(MIN_KEEPALIVE_INTERVAL_MS, RUMBLE_DURATION_MS - KEEPALIVE_SLACK_MS - rttMarginUs / 1000);
+    }
+
+    // Sends any held rumble command or keepalive that is due for the entry and returns the
+    // time this entry next needs servicing, or Long.MAX_VALUE if it doesn't need any.
+    private long serviceEntry(String controllerToken, Entry entry, long now) {
+        ArrayList<SceManager.SceRumbleCallback> callbacks = null;
+        int lowFreqMotor;
+        int highFreqMotor;
+        int journalCode;
+
+        synchronized (entry) {
+            // Whoever is sending will schedule the tick when it completes
+            if (entry.sending) {
+                return Long.MAX_VALUE;
+            }
+
+            if (entry.effect != null && now >= entry.nextEffectSampleTime) {
+                sampleEffectLocked(entry, now);
+            }
+
+            if (entry.hasPending) {
+                long nextSendTime = Math.max(entry.lastSendTime + minSendIntervalMs, entry.pendingNotBefore);
+                if (now < nextSendTime) {
+                    return entry.effect != null ? Math.min(nextSendTime, entry.nextEffectSampleTime) : nextSendTime;
+                }
+
+                entry.hasPending = false;
+                callbacks = entry.pendingCallbacks;
+                entry.pendingCallbacks = null;
+                lowFreqMotor = entry.pendingLowFreqMotor;
+                highFreqMotor = entry.pendingHighFreqMotor;
+            }
+            else if (entry.active && now >= Math.max(entry.nextKeepaliveTime - KEEPALIVE_COALESCING_WINDOW_MS, entry.impulseEndTime)) {
+                // Continue to rumble as long as it succeeds. If the rumble fails,
+                // endSendLocked() won't reactivate the keepalives.
+                lowFreqMotor = entry.lowFreqMotor;
+                highFreqMotor = entry.highFreqMotor;
+            }
+            else {
+                return getNextServiceTimeLocked(entry);
+            }
+
+            journalCode = beginSendLocked(entry, lowFreqMotor, highFreqMotor, now);
+        }
+
+        boolean success = false;
+        try {
+            success = send(controllerToken, journalCode, lowFreqMotor, highFreqMotor);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+
+        long nextServiceTime;
+        synchronized (entry) {
+            // Give up on the effect if the controller can't play it
+            if (!success) {
+                entry.effect = null;
+            }
+            nextServiceTime = endSendLocked(entry, lowFreqMotor, highFreqMotor, now, success);
+        }
+
+        completeCallbacks(callbacks, success);
+        return nextServiceTime;
+    }
+
+    // Samples the effect being played and queues a rumble command if the controller needs
+    // to be updated to follow it
+    private void sampleEffectLocked(Entry entry, long now) {
+        SceHapticEffect effect = entry.effect;
+        long positionMs = effect.getPositionMs(now - entry.effectStartTime);
+
+        if (positionMs < 0) {
+            // The effect has ended, so stop its channel
+            entry.effect = null;
+            setChannelLocked(entry, DEFAULT_CHANNEL, 0, 0, 0);
+        }
+        else {
+            setChannelLocked(entry, DEFAULT_CHANNEL, 0, effect.getLowFreqAmplitude(positionMs), effect.getHighFreqAmplitude(positionMs));
+            entry.nextEffectSampleTime = now + effect.getNextSampleDelayMs(positionMs,
+                    Math.max(MIN_EFFECT_SAMPLE_INTERVAL_MS, minSendIntervalMs));
+        }
+
+        int lowFreqMotor = entry.mixedLowFreqMotor;
+        int highFreqMotor = entry.mixedHighFreqMotor;
+
+        // Compare against the command waiting to be sent, if any, or what the controller is playing
+        int currentLowFreqMotor = entry.hasPending ? entry.pendingLowFreqMotor : entry.lowFreqMotor;
+        int currentHighFreqMotor = entry.hasPending ? entry.pendingHighFreqMotor : entry.highFreqMotor;
+        boolean current = entry.hasPending || entry.confirmed;
+        if (current && isWithinTolerance(currentLowFreqMotor, lowFreqMotor) && isWithinTolerance(currentHighFreqMotor, highFreqMotor)) {
+            return;
+        }
+
+        setPendingLocked(entry, lowFreqMotor, highFreqMotor, entry.pendingCallbacks);
+    }
+
+    private static boolean isWithinTolerance(int currentAmplitude, int targetAmplitude) {
+        // Always send changes to or from 0, so the motor actually stops and starts
+        if ((currentAmplitude == 0) != (targetAmplitude == 0)) {
+            return false;
+        }
+        return Math.abs(currentAmplitude - targetAmplitude) <= EFFECT_TOLERANCE;
+    }
+
+    private void scheduleTick(long tickTime) {
+        long delayMs;
+        synchronized (tickLock) {
+            // If a tick is already pending at or before this time, it will handle this one.
+            if (tickTime >= pendingTickTime) {
+                return;
+            }
+            pendingTickTime = tickTime;
+            delayMs = Math.max(0, tickTime - scheduler.uptimeMillis());
+        }
+
+        scheduler.postDelayed(tickRunnable, delayMs);
+    }
+}
@@ -0,0 +1,161 @@
+package org.cgutman.shieldcontrollerextensions;
+
+/**
+ * Battery state of a device as reported by the SHIELD AccessoryService.
+ *
+ * The service reports battery state as a list of integer fields, the first of which is the
+ * battery percentage. The meaning of the other fields isn't documented, so they're exposed
+ * by index. This object is meant to be reused: pass the same instance to
+ * {@link SceManager#getBatteryState(android.view.InputDevice, SceBatteryState)} on each
+ * query to avoid creating garbage.
+ */
+public final class SceBatteryState {
+    /**
+     * Maximum number of fields kept. Any further fields are ignored.
+     */
+    public static final int MAX_FIELDS = 16;
+
+    private final int[] fields = new int[MAX_FIELDS];
+    private int fieldCount;
+    // Bit i is set if field i was a valid integer
+    private int validFieldMask;
+
+    /**
+     * Creates an empty battery state to be filled by SceManager
+     */
+    public SceBatteryState() {
+    }
+
+    /**
+     * @return Battery percentage (0-100) or -1 if unknown
+     */
+    public int getBatteryPercentage() {
+        return isFieldValid(0) ? fields[0] : -1;
+    }
+
+    /**
+     * @return Number of fields reported by the service
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @param index Index of the field
+     * @return true if the field is present and is an integer
+     */
+    public boolean isFieldValid(int index) {
+        return index >= 0 && index < fieldCount && (validFieldMask & (1 << index)) != 0;
+    }
+
+    /**
+     * @param index Index of the field
+     * @return Value of the field or -1 if it's not valid
+     */
+    public int getField(int index) {
+        return isFieldValid(index) ? fields[index] : -1;
+    }
+
+    void clear() {
+        fieldCount = 0;
+        validFieldMask = 0;
+    }
+
+    void copyFrom(SceBatteryState other) {
+        System.arraycopy(other.fields, 0, fields, 0, other.fieldCount);
+        fieldCount = other.fieldCount;
+        validFieldMask = other.validFieldMask;
+    }
+
+    boolean contentEquals(SceBatteryState other) {
+        if (fieldCount != other.fieldCount || validFieldMask != other.validFieldMask) {
+            return false;
+        }
+        for (int i = 0; i < fieldCount; i++) {
+            if (fields[i] != other.fields[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Parses the ";"-delimited battery state string in place. This is called for every battery
+    // state we fetch, so it walks the string by index rather than splitting it. Returns false
+    // if the string is empty or the battery percentage isn't valid.
+    boolean parse(String batteryState) {
+        clear();
+        if (batteryState == null || batteryState.isEmpty()) {
+            return false;
+        }
+
+        int start = 0;
+        int length = batteryState.length();
+        while (fieldCount < MAX_FIELDS) {
+            int end = batteryState.indexOf(';', start);
+            if (end < 0) {
+                end = length;
+            }
+
+            long value = parseField(batteryState, start, end);
+            if (value >= Integer.MIN_VALUE) {
+                fields[fieldCount] = (int) value;
+                validFieldMask |= 1 << fieldCount;
+            }
+            fieldCount++;
+
+            if (end == length) {
+                break;
+            }
+            start = end + 1;
+        }
+
+        return isFieldValid(0);
+    }
+
+    // Returns the battery percentage from a battery state string without allocating, or -1
+    static int parseBatteryPercentage(String batteryState) {
+        if (batteryState == null) {
+            return -1;
+        }
+
+        int end = batteryState.indexOf(';');
+        long value = parseField(batteryState, 0, end >= 0 ? end : batteryState.length());
+        return value >= Integer.MIN_VALUE ? (int) value : -1;
+    }
+
+    // Parses a decimal integer from the given range, ignoring surrounding whitespace. Returns
+    // Long.MIN_VALUE if it isn't a valid int.
+    private static long parseField(String s, int start, int end) {
+        while (start < end && s.charAt(start) == ' ') {
+            start++;
+        }
+        while (end > start && s.charAt(end - 1) == ' ') {
+            end--;
+        }
+
+        boolean negative = false;
+        if (start < end && (s.charAt(start) == '-' || s.charAt(start) == '+')) {
+            negative = s.charAt(start) == '-';
+            start++;
+        }
+        if (start == end) {
+            return Long.MIN_VALUE;
+        }
+
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return Long.MIN_VALUE;
+            }
+
+            value = value * 10 + (c - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return Long.MIN_VALUE;
+            }
+        }
+
+        value = negative ? -value : value;
+        return value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE ? value : Long.MIN_VALUE;
+    }
+}
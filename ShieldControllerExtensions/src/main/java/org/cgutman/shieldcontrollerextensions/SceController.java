@@ -0,0 +1,236 @@
+package org.cgutman.shieldcontrollerextensions;
+
+/**
+ * Handle to a recognized device, obtained from {@link SceManager#getController(android.view.InputDevice)}.
+ *
+ * The SceManager functions that take an InputDevice look the device up on each call. A
+ * SceController is bound to its device when it's obtained, so its functions skip that lookup.
+ * It stays bound to the same device if the device's input device ID changes, and becomes
+ * invalid when the device is removed. Functions called on an invalid handle fail as if the
+ * device wasn't recognized. SceManager returns the same handle for a device until it's removed.
+ */
+public final class SceController {
+    private final SceManager manager;
+    private final String controllerToken;
+    private volatile boolean valid = true;
+
+    // Set by the EventDispatcher whenever the device's properties are cached, which replaces
+    // them if the service reports the device as added again while it's present
+    private volatile DeviceProperties properties;
+
+    SceController(SceManager manager, String controllerToken) {
+        this.manager = manager;
+        this.controllerToken = controllerToken;
+    }
+
+    void invalidate() {
+        valid = false;
+        properties = null;
+    }
+
+    void setProperties(DeviceProperties properties) {
+        this.properties = properties;
+    }
+
+    DeviceProperties getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return true until the device is removed
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @return Current input device ID of the device or -1 if this handle is invalid
+     */
+    public int getInputDeviceId() {
+        return valid ? manager.getInputDeviceId(controllerToken) : -1;
+    }
+
+    /**
+     * See {@link SceManager#getDeviceHealth(android.view.InputDevice)}
+     * @return Health of the device, or SceDeviceHealth.UNKNOWN if this handle is invalid
+     */
+    public SceDeviceHealth getHealth() {
+        return valid ? manager.getDeviceHealth(controllerToken) : SceDeviceHealth.UNKNOWN;
+    }
+
+    /**
+     * See {@link SceManager#rumble(android.view.InputDevice, int, int)}
+     * @param lowFreqMotor Value of the low frequency motor (0 - 65535)
+     * @param highFreqMotor Value of the high frequency motor (0 - 65535)
+     * @return true on success or if the command was deferred by the rate limit, false on failure
+     */
+    public boolean rumble(int lowFreqMotor, int highFreqMotor) {
+        return valid && manager.rumble(controllerToken, RumbleEngine.DEFAULT_CHANNEL, 0, lowFreqMotor, highFreqMotor);
+    }
+
+    /**
+     * See {@link SceManager#rumble(android.view.InputDevice, String, int, int, int)}
+     * @param channel Name of the channel
+     * @param priority Priority of the channel for SceRumbleMixMode.PRIORITY
+     * @param lowFreqMotor Value of the low frequency motor (0 - 65535)
+     * @param highFreqMotor Value of the high frequency motor (0 - 65535)
+     * @return true on success or if the command was deferred by the rate limit, false on failure
+     * @throws IllegalArgumentException if channel is null
+     */
+    public boolean rumble(String channel, int priority, int lowFreqMotor, int highFreqMotor) {
+        SceManager.checkChannel(channel);
+        return valid && manager.rumble(controllerToken, channel, priority, lowFreqMotor, highFreqMotor);
+    }
+
+    /**
+     * See {@link SceManager#rumbleAsync(android.view.InputDevice, int, int, SceManager.SceRumbleCallback)}
+     * @param lowFreqMotor Value of the low frequency motor (0 - 65535)
+     * @param highFreqMotor Value of the high frequency motor (0 - 65535)
+     * @param callback Optional callback to receive the outcome of the rumble command
+     * @return true if the command was queued, false if this handle is invalid
+     */
+    public boolean rumbleAsync(int lowFreqMotor, int highFreqMotor, SceManager.SceRumbleCallback callback) {
+        return rumbleAsync(RumbleEngine.DEFAULT_CHANNEL, 0, lowFreqMotor, highFreqMotor, callback);
+    }
+
+    /**
+     * See {@link SceManager#rumbleAsync(android.view.InputDevice, String, int, int, int, SceManager.SceRumbleCallback)}
+     * @param channel Name of the channel
+     * @param priority Priority of the channel for SceRumbleMixMode.PRIORITY
+     * @param lowFreqMotor Value of the low frequency motor (0 - 65535)
+     * @param highFreqMotor Value of the high frequency motor (0 - 65535)
+     * @param callback Optional callback to receive the outcome of the rumble command
+     * @return true if the command was queued, false if this handle is invalid
+     * @throws IllegalArgumentException if channel is null
+     */
+    public boolean rumbleAsync(String channel, int priority, int lowFreqMotor, int highFreqMotor,
+                               SceManager.SceRumbleCallback callback) {
+        SceManager.checkChannel(channel);
+        if (!valid) {
+            return false;
+        }
+
+        manager.rumbleAsync(controllerToken, channel, priority, lowFreqMotor, highFreqMotor, callback);
+        return true;
+    }
+
+    /**
+     * See {@link SceManager#rumbleImpulse(android.view.InputDevice, int, int, long)}
+     * @param lowFreqMotor Value of the low frequency motor (0 - 65535)
+     * @param highFreqMotor Value of the high frequency motor (0 - 65535)
+     * @param durationMs Duration of the impulse in milliseconds (1 - 1500)
+     * @return true on success, false on failure
+     */
+    public boolean rumbleImpulse(int lowFreqMotor, int highFreqMotor, long durationMs) {
+        SceManager.checkImpulseDuration(durationMs);
+        return valid && manager.rumbleImpulse(controllerToken, lowFreqMotor, highFreqMotor, durationMs);
+    }
+
+    /**
+     * See {@link SceManager#playEffect(android.view.InputDevice, SceHapticEffect)}
+     * @param effect Effect to play
+     * @return true if the effect was started, false if this handle is invalid
+     */
+    public boolean playEffect(SceHapticEffect effect) {
+        if (!valid) {
+            return false;
+        }
+
+        manager.playEffect(controllerToken, effect);
+        return true;
+    }
+
+    /**
+     * See {@link SceManager#cancelEffect(android.view.InputDevice)}
+     * @return true if an effect was playing, false otherwise
+     */
+    public boolean cancelEffect() {
+        return valid && manager.cancelEffect(controllerToken);
+    }
+
+    /**
+     * See {@link SceManager#identify(android.view.InputDevice)}
+     * @return true on success, false otherwise
+     */
+    public boolean identify() {
+        return valid && manager.identify(controllerToken);
+    }
+
+    /**
+     * @return SceCategory
+     */
+    public SceCategory getCategory() {
+        return valid ? manager.getCategory(controllerToken, getProperties()) : SceCategory.UNKNOWN;
+    }
+
+    /**
+     * @return 0-100 or -1 on failure
+     */
+    public int getBatteryPercentage() {
+        return valid ? manager.getBatteryPercentage(controllerToken, getProperties()) : -1;
+    }
+
+    /**
+     * See {@link SceManager#getBatteryState(android.view.InputDevice, SceBatteryState)}
+     * @param batteryState Battery state to fill in
+     * @return true on success, false on failure
+     */
+    public boolean getBatteryState(SceBatteryState batteryState) {
+        if (!valid) {
+            batteryState.clear();
+            return false;
+        }
+        return manager.getBatteryState(controllerToken, getProperties(), batteryState);
+    }
+
+    /**
+     * See {@link SceManager#getBatteryDrainRate(android.view.InputDevice)}
+     * @return Percent per hour, negative while charging, or NaN if there isn't enough history yet
+     */
+    public float getBatteryDrainRate() {
+        return valid ? manager.getBatteryDrainRate(getProperties()) : Float.NaN;
+    }
+
+    /**
+     * See {@link SceManager#getBatteryTimeRemaining(android.view.InputDevice)}
+     * @return Time remaining in milliseconds or -1 if there isn't enough history yet
+     */
+    public long getBatteryTimeRemaining() {
+        return valid ? manager.getBatteryTimeRemaining(getProperties()) : -1;
+    }
+
+    /**
+     * @return SceChargingState
+     */
+    public SceChargingState getChargingState() {
+        return valid ? manager.getChargingState(controllerToken, getProperties()) : SceChargingState.UNKNOWN;
+    }
+
+    /**
+     * @return SceConnectionState
+     */
+    public SceConnectionState getConnectionState() {
+        return valid ? manager.getConnectionState(controllerToken, getProperties()) : SceConnectionState.UNKNOWN;
+    }
+
+    /**
+     * @return SceConnectionType
+     */
+    public SceConnectionType getConnectionType() {
+        return valid ? manager.getConnectionType(controllerToken, getProperties()) : SceConnectionType.UNKNOWN;
+    }
+
+    /**
+     * @return Nickname or null on failure
+     */
+    public String getNickname() {
+        return valid ? manager.getNickname(controllerToken, getProperties()) : null;
+    }
+
+    /**
+     * @return true if a headset is present, false otherwise
+     */
+    public boolean hasHeadset() {
+        return valid && manager.hasHeadset(controllerToken, getProperties());
+    }
+}
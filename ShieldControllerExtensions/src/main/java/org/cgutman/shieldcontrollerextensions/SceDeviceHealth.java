@@ -0,0 +1,27 @@
+package org.cgutman.shieldcontrollerextensions;
+
+/**
+ * Health of a device, based on how its recent transactions with the SHIELD AccessoryService went
+ */
+public enum SceDeviceHealth {
+    /**
+     * The device is not recognized or SceManager is not connected to the service
+     */
+    UNKNOWN,
+
+    /**
+     * Recent transactions for the device succeeded promptly
+     */
+    HEALTHY,
+
+    /**
+     * Some recent transactions for the device failed or were slow
+     */
+    DEGRADED,
+
+    /**
+     * The device stopped responding. Commands for it fail immediately without contacting
+     * the service until a background check finds it responding again.
+     */
+    UNRESPONSIVE
+}
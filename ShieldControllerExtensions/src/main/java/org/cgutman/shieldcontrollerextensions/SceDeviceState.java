@@ -0,0 +1,64 @@
+package org.cgutman.shieldcontrollerextensions;
+
+/**
+ * Immutable snapshot of the state of a recognized device
+ */
+public final class SceDeviceState {
+    private final int inputDeviceId;
+    private final int batteryPercentage;
+    private final SceChargingState chargingState;
+    private final SceConnectionState connectionState;
+    private final SceConnectionType connectionType;
+    private final SceCategory category;
+    private final String nickname;
+    private final boolean hasHeadset;
+
+    SceDeviceState(int inputDeviceId, DeviceProperties properties) {
+        this.inputDeviceId = inputDeviceId;
+        this.batteryPercentage = properties.batteryPercentage;
+        this.chargingState = properties.chargingState;
+        this.connectionState = properties.connectionState;
+        this.connectionType = properties.connectionType;
+        this.category = properties.category;
+        this.nickname = properties.nickname;
+        this.hasHeadset = properties.hasHeadset;
+    }
+
+    /**
+     * @return Input device ID of the device at the time of the snapshot
+     */
+    public int getInputDeviceId() {
+        return inputDeviceId;
+    }
+
+    /**
+     * @return 0-100 or -1 if unknown
+     */
+    public int getBatteryPercentage() {
+        return batteryPercentage;
+    }
+
+    public SceChargingState getChargingState() {
+        return chargingState;
+    }
+
+    public SceConnectionState getConnectionState() {
+        return connectionState;
+    }
+
+    public SceConnectionType getConnectionType() {
+        return connectionType;
+    }
+
+    public SceCategory getCategory() {
+        return category;
+    }
+
+    public String getNickname() {
+        return nickname;
+    }
+
+    public boolean hasHeadset() {
+        return hasHeadset;
+    }
+}
@@ -0,0 +1,199 @@
+package org.cgutman.shieldcontrollerextensions;
+
+/**
+ * Immutable haptic effect that can be played with SceManager.playEffect().
+ *
+ * An effect is a curve of motor amplitudes over time. Amplitudes are linearly interpolated
+ * between the points of the curve, and SceManager sends only as many rumble commands as
+ * are needed to follow the curve closely.
+ */
+public final class SceHapticEffect {
+    private final long[] timesMs;
+    private final int[] lowFreqAmplitudes;
+    private final int[] highFreqAmplitudes;
+    private final boolean looping;
+
+    private SceHapticEffect(long[] timesMs, int[] lowFreqAmplitudes, int[] highFreqAmplitudes, boolean looping) {
+        this.timesMs = timesMs;
+        this.lowFreqAmplitudes = lowFreqAmplitudes;
+        this.highFreqAmplitudes = highFreqAmplitudes;
+        this.looping = looping;
+    }
+
+    /**
+     * Creates an effect from a list of points. The amplitude of each motor is linearly
+     * interpolated between consecutive points.
+     * @param timesMs Time of each point from the start of the effect in milliseconds. The first
+     *                time must be 0, and the times must be increasing.
+     * @param lowFreqAmplitudes Value of the low frequency motor at each point (0 - 65535)
+     * @param highFreqAmplitudes Value of the high frequency motor at each point (0 - 65535)
+     * @return SceHapticEffect
+     */
+    public static SceHapticEffect createWaveform(long[] timesMs, int[] lowFreqAmplitudes, int[] highFreqAmplitudes) {
+        if (timesMs.length == 0 || timesMs.length != lowFreqAmplitudes.length || timesMs.length != highFreqAmplitudes.length) {
+            throw new IllegalArgumentException("Waveform arrays must be non-empty and the same length");
+        }
+        else if (timesMs[0] != 0) {
+            throw new IllegalArgumentException("Waveform must start at time 0");
+        }
+
+        for (int i = 0; i < timesMs.length; i++) {
+            if (i > 0 && timesMs[i] <= timesMs[i - 1]) {
+                throw new IllegalArgumentException("Waveform times must be increasing");
+            }
+            else if (lowFreqAmplitudes[i] < 0 || lowFreqAmplitudes[i] > 65535 ||
+                    highFreqAmplitudes[i] < 0 || highFreqAmplitudes[i] > 65535) {
+                throw new IllegalArgumentException("Waveform amplitudes must be between 0 and 65535");
+            }
+        }
+
+        return new SceHapticEffect(timesMs.clone(), lowFreqAmplitudes.clone(), highFreqAmplitudes.clone(), false);
+    }
+
+    /**
+     * Creates an effect from an ADSR envelope. The motors ramp up from 0 to the peak values
+     * over the attack time, ramp down to the sustain level over the decay time, hold for the
+     * sustain time, then ramp down to 0 over the release time.
+     * @param lowFreqMotor Peak value of the low frequency motor (0 - 65535)
+     * @param highFreqMotor Peak value of the high frequency motor (0 - 65535)
+     * @param attackMs Attack time in milliseconds
+     * @param decayMs Decay time in milliseconds
+     * @param sustainLevel Sustain level as a fraction of the peak values (0.0 - 1.0)
+     * @param sustainMs Sustain time in milliseconds
+     * @param releaseMs Release time in milliseconds
+     * @return SceHapticEffect
+     */
+    public static SceHapticEffect createEnvelope(int lowFreqMotor, int highFreqMotor,
+                                                 long attackMs, long decayMs, float sustainLevel,
+                                                 long sustainMs, long releaseMs) {
+        if (attackMs < 0 || decayMs < 0 || sustainMs < 0 || releaseMs < 0) {
+            throw new IllegalArgumentException("Envelope times must not be negative");
+        }
+        else if (sustainLevel < 0 || sustainLevel > 1) {
+            throw new IllegalArgumentException("Sustain level must be between 0.0 and 1.0");
+        }
+
+        int sustainLow = Math.round(lowFreqMotor * sustainLevel);
+        int sustainHigh = Math.round(highFreqMotor * sustainLevel);
+
+        // Build the points, leaving out any zero-length stages
+        long[] timesMs = new long[5];
+        int[] low = new int[5];
+        int[] high = new int[5];
+        int count = 1;
+        long time = 0;
+        long[] stageTimes = {attackMs, decayMs, sustainMs, releaseMs};
+        int[] stageLow = {lowFreqMotor, sustainLow, sustainLow, 0};
+        int[] stageHigh = {highFreqMotor, sustainHigh, sustainHigh, 0};
+        for (int i = 0; i < stageTimes.length; i++) {
+            if (stageTimes[i] > 0) {
+                time += stageTimes[i];
+                timesMs[count] = time;
+                low[count] = stageLow[i];
+                high[count] = stageHigh[i];
+                count++;
+            }
+            else if (count == 1) {
+                // A stage with no duration at the start of the effect sets the initial values
+                low[0] = stageLow[i];
+                high[0] = stageHigh[i];
+            }
+        }
+
+        long[] trimmedTimesMs = new long[count];
+        int[] trimmedLow = new int[count];
+        int[] trimmedHigh = new int[count];
+        System.arraycopy(timesMs, 0, trimmedTimesMs, 0, count);
+        System.arraycopy(low, 0, trimmedLow, 0, count);
+        System.arraycopy(high, 0, trimmedHigh, 0, count);
+        return createWaveform(trimmedTimesMs, trimmedLow, trimmedHigh);
+    }
+
+    /**
+     * Returns a copy of this effect that repeats from the start when it reaches its end,
+     * until it is canceled or replaced.
+     * @param looping true to loop the effect
+     * @return SceHapticEffect
+     */
+    public SceHapticEffect withLooping(boolean looping) {
+        if (looping && getDurationMs() == 0) {
+            throw new IllegalArgumentException("Effects without a duration can't loop");
+        }
+        return new SceHapticEffect(timesMs, lowFreqAmplitudes, highFreqAmplitudes, looping);
+    }
+
+    /**
+     * @return Duration of one pass through the effect in milliseconds
+     */
+    public long getDurationMs() {
+        return timesMs[timesMs.length - 1];
+    }
+
+    /**
+     * @return true if the effect loops
+     */
+    public boolean isLooping() {
+        return looping;
+    }
+
+    // Returns the position within the effect for the time since it started, or -1 if a
+    // non-looping effect has ended.
+    long getPositionMs(long elapsedMs) {
+        long durationMs = getDurationMs();
+        if (looping) {
+            return elapsedMs % durationMs;
+        }
+        return elapsedMs < durationMs ? elapsedMs : -1;
+    }
+
+    // Returns the index of the segment containing the position, which runs from
+    // timesMs[index] to timesMs[index + 1]
+    private int getSegmentIndex(long positionMs) {
+        int low = 0;
+        int high = timesMs.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (timesMs[mid] <= positionMs) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return Math.min(low, timesMs.length - 2);
+    }
+
+    private static int interpolate(long t0, int a0, long t1, int a1, long t) {
+        return (int) (a0 + (a1 - a0) * (t - t0) / (t1 - t0));
+    }
+
+    int getLowFreqAmplitude(long positionMs) {
+        if (timesMs.length == 1) {
+            return lowFreqAmplitudes[0];
+        }
+        int i = getSegmentIndex(positionMs);
+        return interpolate(timesMs[i], lowFreqAmplitudes[i], timesMs[i + 1], lowFreqAmplitudes[i + 1], positionMs);
+    }
+
+    int getHighFreqAmplitude(long positionMs) {
+        if (timesMs.length == 1) {
+            return highFreqAmplitudes[0];
+        }
+        int i = getSegmentIndex(positionMs);
+        return interpolate(timesMs[i], highFreqAmplitudes[i], timesMs[i + 1], highFreqAmplitudes[i + 1], positionMs);
+    }
+
+    // Returns how long until the effect needs to be sampled again. Within a segment where
+    // the amplitudes don't change, there's nothing to sample until the segment ends.
+    long getNextSampleDelayMs(long positionMs, long sampleIntervalMs) {
+        if (timesMs.length == 1) {
+            return Long.MAX_VALUE;
+        }
+
+        int i = getSegmentIndex(positionMs);
+        if (lowFreqAmplitudes[i] == lowFreqAmplitudes[i + 1] && highFreqAmplitudes[i] == highFreqAmplitudes[i + 1]) {
+            return Math.max(1, timesMs[i + 1] - positionMs);
+        }
+        return Math.max(1, Math.min(sampleIntervalMs, timesMs[i + 1] - positionMs));
+    }
+}
@@ -0,0 +1,90 @@
+package org.cgutman.shieldcontrollerextensions;
+
+/**
+ * Immutable snapshot of a latency histogram.
+ *
+ * Samples are counted in buckets with power-of-two bounds in microseconds. Bucket 0 holds
+ * samples under 1 us, and bucket i holds samples from 2^(i-1) us up to 2^i us. The last
+ * bucket holds all samples above the range of the others.
+ */
+public final class SceLatencyStats {
+    private final long[] bucketCounts = new long[LatencyHistogram.BUCKET_COUNT];
+    private final long count;
+    private final long totalTimeNanos;
+
+    SceLatencyStats(LatencyHistogram histogram) {
+        totalTimeNanos = histogram.copyTo(bucketCounts);
+
+        long count = 0;
+        for (long bucketCount : bucketCounts) {
+            count += bucketCount;
+        }
+        this.count = count;
+    }
+
+    /**
+     * @return Number of samples recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return Sum of all recorded samples in nanoseconds
+     */
+    public long getTotalTimeNanos() {
+        return totalTimeNanos;
+    }
+
+    /**
+     * @return Mean of all recorded samples in microseconds or 0 if there are no samples
+     */
+    public long getMeanMicros() {
+        return count > 0 ? totalTimeNanos / count / 1000 : 0;
+    }
+
+    /**
+     * Estimates a percentile of the recorded samples
+     * @param percentile Percentile to estimate (0 - 100)
+     * @return Upper bound of the bucket containing the percentile in microseconds,
+     * Long.MAX_VALUE if it is in the last bucket, or 0 if there are no samples
+     */
+    public long getPercentileMicros(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long targetCount = (long) Math.ceil(count * percentile / 100.0);
+        long cumulativeCount = 0;
+        for (int i = 0; i < bucketCounts.length; i++) {
+            cumulativeCount += bucketCounts[i];
+            if (cumulativeCount >= targetCount && cumulativeCount > 0) {
+                return LatencyHistogram.getBucketUpperBoundUs(i);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * @return Number of histogram buckets
+     */
+    public int getBucketCount() {
+        return bucketCounts.length;
+    }
+
+    /**
+     * @param index Bucket index
+     * @return Exclusive upper bound of the bucket in microseconds or Long.MAX_VALUE for the last bucket
+     */
+    public long getBucketUpperBoundMicros(int index) {
+        return LatencyHistogram.getBucketUpperBoundUs(index);
+    }
+
+    /**
+     * @param index Bucket index
+     * @return Number of samples in the bucket
+     */
+    public long getBucketSampleCount(int index) {
+        return bucketCounts[index];
+    }
+}
@@ -5,167 +5,535 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
+import android.os.DeadObjectException;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.RemoteException;
 import android.view.InputDevice;
 
-import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class SceManager {
     private final Context context;
+    private final RumbleEngine rumbleEngine;
+    private final StatsCollector stats = new StatsCollector();
+    private final ExecutorTaskScheduler healthScheduler = ExecutorTaskScheduler.createDefault("SceManager-Health");
+    private final ExecutorTaskScheduler eventScheduler = ExecutorTaskScheduler.createDefault("SceManager-Events");
 
-    private IExposedControllerBinderWrapper binder;
+    // The rumble scheduler if we created it, rather than the caller providing its thread
+    private final ExecutorTaskScheduler ownedRumbleScheduler;
+    private final EventJournal journal = new EventJournal();
+
+    // Written on the main thread, except that it's cleared on a binder thread when the
+    // service dies so we stop using it right away
+    private volatile CircuitBreakerSceTransport transport;
+    private volatile IBinder serviceBinder;
+    private IBinder.DeathRecipient deathRecipient;
     private final ServiceConnection serviceConnection = new ServiceConnection() {
         @Override
         public void onServiceConnected(ComponentName componentName, IBinder iBinder) {
-            binder = new IExposedControllerBinderWrapper(iBinder);
+            reconnectHandler.removeCallbacks(reconnectRunnable);
+            reconnectDelayMs = INITIAL_RECONNECT_DELAY_MS;
+
+            // Unresponsive controllers are short-circuited before the transaction is made,
+            // so those don't appear in the transaction statistics
+            final CircuitBreakerSceTransport transport = new CircuitBreakerSceTransport(
+                    new InstrumentedSceTransport(new IExposedControllerBinderWrapper(iBinder), stats),
+                    healthScheduler, stats);
+            serviceBinder = iBinder;
+            SceManager.this.transport = transport;
+            rumbleEngine.setTransport(transport);
+            eventDispatcher.setTransport(transport);
+
+            try {
+                // Find out right away if the service dies, rather than waiting for our next
+                // transaction to fail or for onServiceDisconnected()
+                deathRecipient = new IBinder.DeathRecipient() {
+                    @Override
+                    public void binderDied() {
+                        onServiceDied(transport);
+                    }
+                };
+                iBinder.linkToDeath(deathRecipient, 0);
+            } catch (RemoteException e) {
+                // The service already died
+                onServiceDied(transport);
+                return;
+            }
 
             try {
-                listenerId = binder.registerListener(controllerListener);
+                // Device events are invoked on a binder thread, so the EventDispatcher
+                // hands them off to its own worker for processing. The devices reported
+                // during registration are processed together afterwards.
+                listenerId = eventDispatcher.register(transport);
             } catch (RemoteException e) {
-                e.printStackTrace();
+                logTransactionFailure(e);
             }
         }
 
         @Override
         public void onServiceDisconnected(ComponentName componentName) {
-            binder = null;
-            listenerId = 0;
+            onServiceLost();
+        }
+    };
+
+    // Android reconnects to the service when it restarts, but if that hasn't happened after
+    // a while, we bind again. The delay between attempts doubles up to a maximum.
+    static final long INITIAL_RECONNECT_DELAY_MS = 500;
+    static final long MAX_RECONNECT_DELAY_MS = 30000;
+    private final Handler reconnectHandler = new Handler(Looper.getMainLooper());
+    private long reconnectDelayMs = INITIAL_RECONNECT_DELAY_MS;
+    private final Runnable reconnectRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!started || transport != null) {
+                return;
+            }
 
-            clearDeviceState();
+            if (bound) {
+                context.unbindService(serviceConnection);
+                bound = false;
+            }
+            bindService();
+
+            reconnectDelayMs = getNextReconnectDelayMs(reconnectDelayMs);
+            reconnectHandler.postDelayed(this, reconnectDelayMs);
         }
     };
 
-    // ConcurrentHashMap handles synchronization between the Binder thread adding/removing
+    static long getNextReconnectDelayMs(long reconnectDelayMs) {
+        return Math.min(reconnectDelayMs * 2, MAX_RECONNECT_DELAY_MS);
+    }
+
+    // Guarded by the main thread, along with start() and stop()
+    private boolean started;
+    private boolean bound;
+    private volatile boolean resumeRumbleOnReconnect;
+
+    // DeviceTable handles synchronization between the Binder thread adding/removing
     // entries and callers on arbitrary threads that are doing device lookups.
-    //
-    // Since these are separate maps, they can be temporarily inconsistent (only one-way
-    // of the two-way mapping present). This is fine for our purposes here.
-    private final ConcurrentHashMap<String, Integer> tokenToDeviceIdMap = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<Integer, String> deviceIdToTokenMap = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Timer> activeRumbleTimerMap = new ConcurrentHashMap<>();
+    private final DeviceTable deviceTable = new DeviceTable();
+
+    // Device properties are cached to avoid IPC on each query. The cache is populated when
+    // a device is added and kept up to date by onDeviceChanged() callbacks.
+    private final ConcurrentHashMap<String, DeviceProperties> devicePropertiesMap = new ConcurrentHashMap<>();
+    private volatile boolean propertyCacheEnabled = true;
+
+    private final EventDispatcher eventDispatcher;
+    private SceDeviceListener deviceListener;
 
     private int listenerId;
-    private final IExposedControllerManagerListener.Stub controllerListener = new IExposedControllerManagerListener.Stub() {
-        @Override
-        public void onDeviceAdded(String controllerToken) {
-            try {
-                int inputDeviceId = binder.getInputDeviceId(controllerToken);
 
-                // If we don't have an input device ID yet, ignore this callback.
-                // We will invoke it again in onDeviceChanged() when an ID is assigned.
-                if (inputDeviceId < 0) {
-                    return;
-                }
+    // Metadata of devices recognized on previous launches, which answers queries optimistically
+    // until we're ready for the first time. Enabled by setWarmStartCacheEnabled().
+    private static final String WARM_START_CACHE_FILE_NAME = "sce_warm_start_cache";
+    private volatile WarmStartCache warmStartCache;
+    private volatile boolean warmStartActive;
 
-                tokenToDeviceIdMap.put(controllerToken, inputDeviceId);
-                deviceIdToTokenMap.put(inputDeviceId, controllerToken);
-                if (listener != null) {
-                    listener.onDeviceAdded(inputDeviceId);
-                }
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
+    // Readiness depends on the service, so we stop answering from the warm start cache after
+    // this long even if we never become ready
+    private static final long WARM_START_TIMEOUT_MS = 5000;
+    private final Runnable warmStartTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            warmStartActive = false;
+        }
+    };
+    private final SceDeviceListener warmStartListener = new SceDeviceListener() {
+        @Override
+        public void onDeviceAdded(int inputDeviceId) {
+            updateWarmStartCache(inputDeviceId);
         }
 
         @Override
-        public void onDeviceChanged(String controllerToken, int changeType) {
-            try {
-                Integer inputDeviceId = tokenToDeviceIdMap.get(controllerToken);
-                if (inputDeviceId == null) {
-                    // If this is an input device changed, we will treat this as a device added
-                    // when we're gaining an input device ID for the first time.
-                    if (changeType == 7 && binder.getInputDeviceId(controllerToken) >= 0) {
-                        onDeviceAdded(controllerToken);
-                    }
-                    return;
-                }
+        public void onInputDeviceIdChanged(int oldInputDeviceId, int newInputDeviceId) {
+            updateWarmStartCache(newInputDeviceId);
+        }
 
-                // We handle input device ID changed internally to keep our mapping in sync.
-                // NB: This can be called for a transition from a valid to invalid input device ID.
-                int newInputDeviceId = binder.getInputDeviceId(controllerToken);
-                if (changeType == 7) {
-                    if (newInputDeviceId >= 0) {
-                        deviceIdToTokenMap.remove(inputDeviceId);
-                        tokenToDeviceIdMap.remove(controllerToken);
-                        deviceIdToTokenMap.put(newInputDeviceId, controllerToken);
-                        tokenToDeviceIdMap.put(controllerToken, newInputDeviceId);
-                    }
-                    else {
-                        // Treat transition to -1 as a device removal. We don't notify this case
-                        // as a normal input device ID change.
-                        onDeviceRemoved(controllerToken);
-                        return;
-                    }
-                }
+        @Override
+        public void onNicknameChanged(int inputDeviceId, String newNickname) {
+            updateWarmStartCache(inputDeviceId);
+        }
+    };
 
-                if (listener != null) {
-                    switch (changeType) {
-                        case 2:
-                            listener.onBatteryPercentageChanged(inputDeviceId, binder.getBatteryPercentage(controllerToken));
-                            break;
-                        case 3:
-                            listener.onChargingStateChanged(inputDeviceId, binder.getChargingState(controllerToken));
-                            break;
-                        case 4:
-                            listener.onConnectionStateChanged(inputDeviceId, binder.getConnectionState(controllerToken));
-                            break;
-                        case 5:
-                            listener.onConnectionTypeChanged(inputDeviceId, binder.getConnectionType(controllerToken));
-                            break;
-                        case 7:
-                            listener.onInputDeviceIdChanged(inputDeviceId, newInputDeviceId);
-                            break;
-                        case 8:
-                            listener.onNicknameChanged(inputDeviceId, binder.getNickname(controllerToken));
-                            break;
-                        case 11:
-                            listener.onHeadsetPresenceChanged(inputDeviceId, binder.hasHeadset(controllerToken));
-                            break;
-                    }
-                }
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
+    // Called on a binder thread when the service dies
+    private void onServiceDied(CircuitBreakerSceTransport deadTransport) {
+        if (transport != deadTransport) {
+            return;
         }
 
-        @Override
-        public void onDeviceRemoved(String controllerToken) {
-            Integer deviceId = tokenToDeviceIdMap.remove(controllerToken);
-            if (deviceId != null) {
-                deviceIdToTokenMap.remove(deviceId);
-
-                Timer rumbleTimer = activeRumbleTimerMap.remove(controllerToken);
-                if (rumbleTimer != null) {
-                    rumbleTimer.cancel();
-                }
+        // Fail fast until we reconnect
+        transport = null;
+        deadTransport.close();
+        rumbleEngine.setTransport(null);
+        eventDispatcher.setTransport(null);
 
-                if (listener != null) {
-                    listener.onDeviceRemoved(deviceId);
-                }
+        reconnectHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                onServiceLost();
             }
+        });
+    }
+
+    // Called on the main thread when the service dies or disconnects
+    private void onServiceLost() {
+        if (serviceBinder == null) {
+            // Already handled
+            return;
         }
-    };
 
-    private SceDeviceListener listener;
+        serviceBinder = null;
+        closeTransport();
+        rumbleEngine.setTransport(null);
+        eventDispatcher.setTransport(null);
+        listenerId = 0;
+
+        // Listeners see the devices removed now and added back once we reconnect
+        eventDispatcher.resetForReconnect(resumeRumbleOnReconnect);
+
+        if (started) {
+            reconnectHandler.removeCallbacks(reconnectRunnable);
+            reconnectHandler.postDelayed(reconnectRunnable, reconnectDelayMs);
+        }
+    }
+
+    private void closeTransport() {
+        CircuitBreakerSceTransport transport = this.transport;
+        this.transport = null;
+        if (transport != null) {
+            transport.close();
+        }
+    }
+
+    // Logs a failed transaction. Queries for an unresponsive controller fail without making
+    // a transaction for as long as its circuit is open, which isn't worth logging each time.
+    static void logTransactionFailure(RemoteException e) {
+        if (!(e instanceof ControllerUnresponsiveException)) {
+            e.printStackTrace();
+        }
+    }
+
+    // Returns the transport or throws if we're not connected to the service
+    private SceTransport getTransport() throws RemoteException {
+        SceTransport transport = this.transport;
+        if (transport == null) {
+            throw new DeadObjectException();
+        }
+        return transport;
+    }
 
     /**
      * Constructor for SceManager
+     *
+     * Rumble keepalives are serviced on a single thread owned by this SceManager.
+     *
      * @param context Context
      */
     public SceManager(Context context) {
+        this(context, ExecutorTaskScheduler.createDefault("SceManager-Rumble"), true);
+    }
+
+    /**
+     * Constructor for SceManager that services rumble keepalives on a caller-provided executor
+     * @param context Context
+     * @param rumbleExecutor Executor to run rumble keepalives on
+     */
+    public SceManager(Context context, ScheduledExecutorService rumbleExecutor) {
+        this(context, new ExecutorTaskScheduler(rumbleExecutor), false);
+    }
+
+    /**
+     * Constructor for SceManager that services rumble keepalives on a caller-provided Looper
+     * @param context Context
+     * @param rumbleLooper Looper to run rumble keepalives on
+     */
+    public SceManager(Context context, Looper rumbleLooper) {
+        this(context, new HandlerTaskScheduler(rumbleLooper), false);
+    }
+
+    private SceManager(Context context, TaskScheduler rumbleScheduler, boolean ownsRumbleScheduler) {
         this.context = context;
+        this.ownedRumbleScheduler = ownsRumbleScheduler ? (ExecutorTaskScheduler) rumbleScheduler : null;
+        this.rumbleEngine = new RumbleEngine(rumbleScheduler, journal);
+        this.eventDispatcher = new EventDispatcher(eventScheduler,
+                deviceTable, devicePropertiesMap, rumbleEngine, stats, journal);
     }
 
     /**
-     * Sets or clears the optional device listener callbacks
+     * Waits until SceManager has bound to the SHIELD AccessoryService and recognized the
+     * devices that were connected at the time. If the service disconnects, SceManager is not
+     * ready again until it reconnects.
+     *
+     * Readiness is best-effort. The service doesn't indicate when it has finished reporting
+     * the connected devices, so SceManager waits briefly for their reports after binding.
+     * A device reported after that is recognized shortly after SceManager becomes ready, and
+     * listeners receive onDeviceAdded() for it as usual.
+     *
+     * @param timeoutMs Maximum time to wait in milliseconds
+     * @return true if SceManager is ready, false if the timeout expired
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public boolean awaitReady(long timeoutMs) throws InterruptedException {
+        return eventDispatcher.awaitReady(timeoutMs);
+    }
+
+    /**
+     * Invokes the callback once when SceManager is ready, as described in awaitReady(). If
+     * SceManager is already ready, the callback is invoked right away. The callback is
+     * invoked on a SceManager thread.
+     * @param callback Callback to invoke
+     */
+    public void addReadyCallback(SceReadyCallback callback) {
+        eventDispatcher.addReadyCallback(callback);
+    }
+
+    /**
+     * Sets or clears the optional device listener callbacks. This replaces any listener
+     * previously set with setDeviceListener(), but not listeners added with addDeviceListener().
+     * Callbacks are invoked on a SceManager thread.
      * @param listener Valid listener or null to clear
      */
     public void setDeviceListener(SceDeviceListener listener) {
-        this.listener = listener;
+        setDeviceListener(listener, (Executor) null);
+    }
+
+    /**
+     * Sets or clears the optional device listener callbacks. This replaces any listener
+     * previously set with setDeviceListener(), but not listeners added with addDeviceListener().
+     * @param listener Valid listener or null to clear
+     * @param executor Executor to invoke the callbacks on
+     */
+    public synchronized void setDeviceListener(SceDeviceListener listener, Executor executor) {
+        if (deviceListener != null) {
+            eventDispatcher.removeListener(deviceListener);
+        }
+        deviceListener = listener;
+        if (listener != null) {
+            eventDispatcher.addListener(listener, executor);
+        }
+    }
+
+    /**
+     * Sets or clears the optional device listener callbacks. This replaces any listener
+     * previously set with setDeviceListener(), but not listeners added with addDeviceListener().
+     * @param listener Valid listener or null to clear
+     * @param handler Handler to invoke the callbacks on
+     */
+    public void setDeviceListener(SceDeviceListener listener, Handler handler) {
+        setDeviceListener(listener, new HandlerExecutor(handler));
+    }
+
+    /**
+     * Adds a device listener. Callbacks are invoked on a SceManager thread.
+     *
+     * Each listener receives its callbacks in order, independently of other listeners. If the
+     * listener is added after devices have been recognized, it will immediately receive
+     * onDeviceAdded() callbacks for those devices.
+     *
+     * @param listener Listener to add
+     */
+    public void addDeviceListener(SceDeviceListener listener) {
+        eventDispatcher.addListener(listener, null);
+    }
+
+    /**
+     * Adds a device listener. See {@link #addDeviceListener(SceDeviceListener)}.
+     * @param listener Listener to add
+     * @param executor Executor to invoke the callbacks on
+     */
+    public void addDeviceListener(SceDeviceListener listener, Executor executor) {
+        eventDispatcher.addListener(listener, executor);
+    }
+
+    /**
+     * Adds a device listener. See {@link #addDeviceListener(SceDeviceListener)}.
+     * @param listener Listener to add
+     * @param handler Handler to invoke the callbacks on
+     */
+    public void addDeviceListener(SceDeviceListener listener, Handler handler) {
+        eventDispatcher.addListener(listener, new HandlerExecutor(handler));
+    }
+
+    /**
+     * Removes a device listener added by addDeviceListener(). Callbacks that were already
+     * queued for delivery may still be invoked after this returns.
+     * @param listener Listener to remove
+     */
+    public void removeDeviceListener(SceDeviceListener listener) {
+        eventDispatcher.removeListener(listener);
+    }
+
+    /**
+     * Sets the window over which repeated device state changes are coalesced.
+     *
+     * When a device's state changes, SceManager waits this long for further changes to the
+     * same device before fetching the new state and invoking listener callbacks. Each changed
+     * property is reported once with its final value, and changes that leave a property at
+     * its previous value are not reported. Changes to a device's input device ID are not
+     * delayed, so the device is recognized by its new ID as soon as possible. The default
+     * is 50 ms.
+     *
+     * @param windowMs Coalescing window in milliseconds or 0 to process changes immediately
+     */
+    public void setEventCoalescingWindow(long windowMs) {
+        eventDispatcher.setCoalescingWindow(windowMs);
+    }
+
+    /**
+     * Sets the maximum number of rumble commands sent to each device per second.
+     *
+     * Rumble commands issued faster than this are coalesced, and only the most recent
+     * amplitudes are sent once the limit allows. Rumble commands that match the amplitudes
+     * the device is already playing are never sent. The default is 30 per second.
+     *
+     * @param maxRumblesPerSecond Maximum rumble commands per second or 0 for no limit
+     */
+    public void setRumbleRateLimit(int maxRumblesPerSecond) {
+        rumbleEngine.setMaxRumblesPerSecond(maxRumblesPerSecond);
+    }
+
+    /**
+     * Sets how rumble channels on the same device are mixed. The default is
+     * SceRumbleMixMode.MAX.
+     * @param mixMode Mix mode
+     */
+    public void setRumbleMixMode(SceRumbleMixMode mixMode) {
+        rumbleEngine.setMixMode(mixMode);
+    }
+
+    /**
+     * Sets whether rumble resumes after SceManager reconnects to the SHIELD AccessoryService.
+     *
+     * If the service dies, SceManager stops using it immediately and reconnects once it's
+     * available again. While disconnected, no devices are recognized. If this is enabled,
+     * rumble set with rumble() is restarted on each device that is still present after
+     * reconnecting. Haptic effects are not resumed. The default is disabled.
+     *
+     * @param resume true to resume rumble after reconnecting
+     */
+    public void setResumeRumbleOnReconnect(boolean resume) {
+        resumeRumbleOnReconnect = resume;
+    }
+
+    /**
+     * Enables or disables the warm start cache, which should be done before calling start().
+     *
+     * When enabled, SceManager saves the input device descriptor, category, and nickname of
+     * each device it recognizes to a small file in the app's files directory. On the next
+     * launch, that file is read when the cache is enabled, and until SceManager is ready
+     * (see awaitReady()), devices that were recognized before are assumed to still be
+     * present. isRecognizedDevice(), getCategory(), and getNickname() answer for them right
+     * away from the cache. Other queries return their unknown values and other functions
+     * fail for them until the SHIELD AccessoryService reports them. Once SceManager is ready, only devices
+     * reported by the service are recognized. The cache also stops being used if start()
+     * fails, when stop() is called, or if SceManager isn't ready 5 seconds after starting.
+     *
+     * Disabling the cache deletes the file.
+     *
+     * @param enabled true to enable the warm start cache
+     */
+    public synchronized void setWarmStartCacheEnabled(boolean enabled) {
+        if (enabled == (warmStartCache != null)) {
+            return;
+        }
+
+        if (enabled) {
+            WarmStartCache warmStartCache = new WarmStartCache(new File(context.getFilesDir(), WARM_START_CACHE_FILE_NAME));
+            warmStartCache.load();
+            this.warmStartCache = warmStartCache;
+            warmStartActive = true;
+
+            // This is invoked right away if we're already ready
+            eventDispatcher.addReadyCallback(new SceReadyCallback() {
+                @Override
+                public void onReady() {
+                    warmStartActive = false;
+                }
+            });
+            eventDispatcher.addListener(warmStartListener, null);
+
+            if (started) {
+                reconnectHandler.postDelayed(warmStartTimeoutRunnable, WARM_START_TIMEOUT_MS);
+            }
+        }
+        else {
+            eventDispatcher.removeListener(warmStartListener);
+            warmStartActive = false;
+            warmStartCache.delete();
+            warmStartCache = null;
+        }
+    }
+
+    /**
+     * Enables or disables caching of device properties.
+     *
+     * When enabled (the default), device property queries like getBatteryPercentage() return
+     * values cached from device state change notifications without any IPC. When disabled,
+     * each query fetches the current value from the SHIELD AccessoryService.
+     *
+     * @param enabled true to answer queries from the cache, false to always fetch fresh values
+     */
+    public void setPropertyCacheEnabled(boolean enabled) {
+        propertyCacheEnabled = enabled;
+    }
+
+    /**
+     * Gets a snapshot of statistics on transactions with the SHIELD AccessoryService and
+     * delivery of listener callbacks. Collecting these statistics is always enabled and
+     * adds negligible overhead.
+     * @return SceStats
+     */
+    public SceStats getStats() {
+        return new SceStats(stats, rumbleEngine.getActiveCount());
+    }
+
+    /**
+     * Enables or disables the event journal, which keeps a record of recent device events,
+     * input device ID changes, and rumble commands for diagnosing problems. Recording is
+     * cheap enough to leave enabled in production. The journal is disabled by default.
+     *
+     * Changing the capacity discards all existing records.
+     *
+     * @param capacity Number of records to keep or 0 to disable the journal
+     */
+    public void setEventJournalCapacity(int capacity) {
+        journal.setCapacity(capacity);
+    }
+
+    /**
+     * Writes the contents of the event journal from oldest to newest record
+     * @param writer Writer to dump the journal to
+     */
+    public void dumpEventJournal(PrintWriter writer) {
+        journal.dump(writer);
+    }
+
+    /**
+     * Gets the health of the given InputDevice. After several consecutive transactions for a
+     * device fail or take too long, SceManager considers it unresponsive and fails further
+     * commands for it immediately, rather than having each one wait on the SHIELD
+     * AccessoryService. It checks the device in the background with increasing back-off and
+     * resumes normal operation once the device responds again.
+     * @param device Input device to examine
+     * @return Health of the device, or SceDeviceHealth.UNKNOWN if it's not recognized
+     */
+    public SceDeviceHealth getDeviceHealth(InputDevice device) {
+        String controllerToken = getControllerToken(device);
+        return controllerToken != null ? getDeviceHealth(controllerToken) : SceDeviceHealth.UNKNOWN;
+    }
+
+    SceDeviceHealth getDeviceHealth(String controllerToken) {
+        CircuitBreakerSceTransport transport = this.transport;
+        return transport != null ? transport.getHealth(controllerToken) : SceDeviceHealth.UNKNOWN;
     }
 
     /**
@@ -177,63 +545,284 @@ public class SceManager {
         return getControllerToken(device) != null;
     }
 
+    /**
+     * Gets a handle to a recognized device. Holding on to the handle avoids looking up the
+     * device on each call, and the handle stays bound to the device if its input device ID
+     * changes. See {@link SceController}.
+     * @param device Input device to get a handle for
+     * @return Handle to the device, or null if the device isn't recognized
+     */
+    public SceController getController(InputDevice device) {
+        return getController(device.getId());
+    }
+
+    /**
+     * Gets a handle to a recognized device. See {@link #getController(InputDevice)}.
+     * @param inputDeviceId Input device ID of the device
+     * @return Handle to the device, or null if the device isn't recognized
+     */
+    public SceController getController(int inputDeviceId) {
+        String controllerToken = deviceTable.getToken(inputDeviceId);
+        return controllerToken != null ? eventDispatcher.getController(controllerToken, this) : null;
+    }
+
+    /**
+     * Gets a snapshot of the state of all recognized devices. Properties are taken from the
+     * property cache, so this normally requires no IPC.
+     * @return Immutable list of device states
+     */
+    public List<SceDeviceState> getRecognizedDevices() {
+        DeviceTable.Snapshot snapshot = deviceTable.getSnapshot();
+        ArrayList<SceDeviceState> devices = new ArrayList<>(snapshot.size());
+        for (int i = 0; i < snapshot.size(); i++) {
+            String controllerToken = snapshot.getTokenAt(i);
+            DeviceProperties properties = devicePropertiesMap.get(controllerToken);
+            if (properties == null || !propertyCacheEnabled) {
+                try {
+                    properties = DeviceProperties.fetch(getTransport(), controllerToken);
+                } catch (RemoteException e) {
+                    logTransactionFailure(e);
+                    continue;
+                }
+            }
+
+            devices.add(new SceDeviceState(snapshot.getDeviceIdAt(i), properties));
+        }
+        return Collections.unmodifiableList(devices);
+    }
+
     /**
      * Plays a rumble effect on the given InputDevice
      * @param device Input device to rumble
      * @param lowFreqMotor Value of the low frequency motor (0 - 65535)
      * @param highFreqMotor Value of the high frequency motor (0 - 65535)
-     * @return true on success, false on failure
+     * @return true on success or if the command was deferred by the rate limit, false on failure
      */
-    public boolean rumble(InputDevice device, final int lowFreqMotor, final int highFreqMotor) {
-        final String controllerToken = getControllerToken(device);
+    public boolean rumble(InputDevice device, int lowFreqMotor, int highFreqMotor) {
+        String controllerToken = getReportedControllerToken(device);
+        return controllerToken != null && rumble(controllerToken, RumbleEngine.DEFAULT_CHANNEL, 0, lowFreqMotor, highFreqMotor);
+    }
+
+    /**
+     * Queues a rumble effect to be played on the given InputDevice without waiting for it
+     * to be sent. Commands for each device are sent in order from the rumble thread, and a
+     * newer command for a device replaces an older one that hasn't been sent yet.
+     *
+     * @param device Input device to rumble
+     * @param lowFreqMotor Value of the low frequency motor (0 - 65535)
+     * @param highFreqMotor Value of the high frequency motor (0 - 65535)
+     * @param callback Optional callback to receive the outcome of the rumble command
+     * @return true if the command was queued, false if the device is not recognized
+     */
+    public boolean rumbleAsync(InputDevice device, int lowFreqMotor, int highFreqMotor, SceRumbleCallback callback) {
+        String controllerToken = getReportedControllerToken(device);
         if (controllerToken != null) {
-            try {
-                Timer existingTimer = activeRumbleTimerMap.remove(controllerToken);
-                if (existingTimer != null) {
-                    existingTimer.cancel();
-                }
+            rumbleAsync(controllerToken, RumbleEngine.DEFAULT_CHANNEL, 0, lowFreqMotor, highFreqMotor, callback);
+            return true;
+        }
+        return false;
+    }
 
-                if (binder.rumble(controllerToken, lowFreqMotor, highFreqMotor)) {
-                    // NVIDIA only supports rumble for 1 second at a time, so we keep a timer to continue
-                    // the rumbling until the caller explicitly stops it.
-                    if (lowFreqMotor != 0 || highFreqMotor != 0) {
-                        Timer timer = new Timer(true);
-                        activeRumbleTimerMap.put(controllerToken, timer);
-                        timer.schedule(new TimerTask() {
-                            @Override
-                            public void run() {
-                                // If this timer was removed, return without rumbling
-                                if (!activeRumbleTimerMap.containsKey(controllerToken)) {
-                                    return;
-                                }
-
-                                try {
-                                    // Continue to rumble as long as it succeeds
-                                    if (binder.rumble(controllerToken, lowFreqMotor, highFreqMotor)) {
-                                        return;
-                                    }
-                                } catch (RemoteException e) {
-                                    e.printStackTrace();
-                                }
-
-                                // If we made it here, the rumble failed so cancel our timer.
-                                Timer timer = activeRumbleTimerMap.remove(controllerToken);
-                                if (timer != null) {
-                                    timer.cancel();
-                                }
-                            }
-                        }, 500, 500);
-                    }
+    /**
+     * Plays a short rumble on the given InputDevice that stops by itself after the duration.
+     * This is ideal for haptic clicks, since it takes a single transaction and the SHIELD
+     * AccessoryService stops the rumble on time. If the device is playing a rumble from
+     * rumble(), the impulse interrupts it and it resumes when the impulse ends.
+     * @param device Input device to rumble
+     * @param lowFreqMotor Value of the low frequency motor (0 - 65535)
+     * @param highFreqMotor Value of the high frequency motor (0 - 65535)
+     * @param durationMs Duration of the impulse in milliseconds (1 - 1500)
+     * @return true on success, false on failure
+     */
+    public boolean rumbleImpulse(InputDevice device, int lowFreqMotor, int highFreqMotor, long durationMs) {
+        checkImpulseDuration(durationMs);
 
-                    return true;
-                }
-            } catch (RemoteException e) {
-                e.printStackTrace();
+        String controllerToken = getReportedControllerToken(device);
+        return controllerToken != null && rumbleImpulse(controllerToken, lowFreqMotor, highFreqMotor, durationMs);
+    }
+
+    static void checkImpulseDuration(long durationMs) {
+        if (durationMs <= 0 || durationMs > RumbleEngine.RUMBLE_DURATION_MS) {
+            throw new IllegalArgumentException("Impulse duration must be between 1 and " + RumbleEngine.RUMBLE_DURATION_MS + " ms");
+        }
+    }
+
+    boolean rumbleImpulse(String controllerToken, int lowFreqMotor, int highFreqMotor, long durationMs) {
+        try {
+            return rumbleEngine.rumbleImpulse(controllerToken, lowFreqMotor, highFreqMotor, durationMs);
+        } catch (RemoteException e) {
+            logTransactionFailure(e);
+        }
+        return false;
+    }
+
+    /**
+     * Rumbles a group of devices together. The commands are sent back-to-back from the rumble
+     * thread, and the devices' rumble effects are kept alive together, so they stay in sync.
+     * This doesn't wait for the commands to be sent.
+     * @param inputDeviceIds Input device IDs of the devices to rumble. Unrecognized devices are ignored.
+     * @param lowFreqMotor Value of the low frequency motor (0 - 65535)
+     * @param highFreqMotor Value of the high frequency motor (0 - 65535)
+     * @return Number of recognized devices that the command was queued for
+     */
+    public int rumbleGroup(int[] inputDeviceIds, int lowFreqMotor, int highFreqMotor) {
+        DeviceTable.Snapshot snapshot = deviceTable.getSnapshot();
+        String[] controllerTokens = new String[inputDeviceIds.length];
+        int count = 0;
+        for (int inputDeviceId : inputDeviceIds) {
+            String controllerToken = snapshot.getToken(inputDeviceId);
+            if (controllerToken != null) {
+                controllerTokens[count++] = controllerToken;
             }
         }
+
+        if (count != controllerTokens.length) {
+            String[] recognizedTokens = new String[count];
+            System.arraycopy(controllerTokens, 0, recognizedTokens, 0, count);
+            controllerTokens = recognizedTokens;
+        }
+        if (count > 0) {
+            rumbleEngine.rumbleGroup(controllerTokens, lowFreqMotor, highFreqMotor);
+        }
+        return count;
+    }
+
+    /**
+     * Rumbles all recognized devices together. See {@link #rumbleGroup(int[], int, int)}.
+     * @param lowFreqMotor Value of the low frequency motor (0 - 65535)
+     * @param highFreqMotor Value of the high frequency motor (0 - 65535)
+     * @return Number of devices that the command was queued for
+     */
+    public int rumbleAll(int lowFreqMotor, int highFreqMotor) {
+        DeviceTable.Snapshot snapshot = deviceTable.getSnapshot();
+        String[] controllerTokens = new String[snapshot.size()];
+        for (int i = 0; i < controllerTokens.length; i++) {
+            controllerTokens[i] = snapshot.getTokenAt(i);
+        }
+        if (controllerTokens.length > 0) {
+            rumbleEngine.rumbleGroup(controllerTokens, lowFreqMotor, highFreqMotor);
+        }
+        return controllerTokens.length;
+    }
+
+    /**
+     * Sets the rumble on one channel of the given InputDevice.
+     *
+     * Each device can be rumbled by several independent channels, such as gameplay and UI
+     * feedback, and the device plays the mix of all of them according to the mix mode set
+     * with setRumbleMixMode(). Rumbling a channel with 0 for both motors stops that channel.
+     * The plain rumble() and rumbleAsync() functions and haptic effects use the "default"
+     * channel with priority 0.
+     *
+     * @param device Input device to rumble
+     * @param channel Name of the channel
+     * @param priority Priority of the channel for SceRumbleMixMode.PRIORITY
+     * @param lowFreqMotor Value of the low frequency motor (0 - 65535)
+     * @param highFreqMotor Value of the high frequency motor (0 - 65535)
+     * @return true on success or if the command was deferred by the rate limit, false on failure
+     * @throws IllegalArgumentException if channel is null
+     */
+    public boolean rumble(InputDevice device, String channel, int priority, int lowFreqMotor, int highFreqMotor) {
+        checkChannel(channel);
+
+        String controllerToken = getReportedControllerToken(device);
+        return controllerToken != null && rumble(controllerToken, channel, priority, lowFreqMotor, highFreqMotor);
+    }
+
+    static void checkChannel(String channel) {
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel name must not be null");
+        }
+    }
+
+    boolean rumble(String controllerToken, String channel, int priority, int lowFreqMotor, int highFreqMotor) {
+        try {
+            return rumbleEngine.rumble(controllerToken, channel, priority, lowFreqMotor, highFreqMotor);
+        } catch (RemoteException e) {
+            logTransactionFailure(e);
+        }
         return false;
     }
 
+    /**
+     * Sets the rumble on one channel of the given InputDevice without waiting for it to be
+     * sent. See {@link #rumble(InputDevice, String, int, int, int)} and
+     * {@link #rumbleAsync(InputDevice, int, int, SceRumbleCallback)}.
+     *
+     * @param device Input device to rumble
+     * @param channel Name of the channel
+     * @param priority Priority of the channel for SceRumbleMixMode.PRIORITY
+     * @param lowFreqMotor Value of the low frequency motor (0 - 65535)
+     * @param highFreqMotor Value of the high frequency motor (0 - 65535)
+     * @param callback Optional callback to receive the outcome of the rumble command
+     * @return true if the command was queued, false if the device is not recognized
+     * @throws IllegalArgumentException if channel is null
+     */
+    public boolean rumbleAsync(InputDevice device, String channel, int priority, int lowFreqMotor, int highFreqMotor,
+                               SceRumbleCallback callback) {
+        checkChannel(channel);
+
+        String controllerToken = getReportedControllerToken(device);
+        if (controllerToken != null) {
+            rumbleAsync(controllerToken, channel, priority, lowFreqMotor, highFreqMotor, callback);
+            return true;
+        }
+        return false;
+    }
+
+    void rumbleAsync(String controllerToken, String channel, int priority, int lowFreqMotor, int highFreqMotor,
+                     SceRumbleCallback callback) {
+        rumbleEngine.rumbleAsync(controllerToken, channel, priority, lowFreqMotor, highFreqMotor, callback);
+    }
+
+    /**
+     * Queues a rumble effect to be played on the given InputDevice without waiting for it
+     * to be sent. See {@link #rumbleAsync(InputDevice, int, int, SceRumbleCallback)}.
+     *
+     * @param device Input device to rumble
+     * @param lowFreqMotor Value of the low frequency motor (0 - 65535)
+     * @param highFreqMotor Value of the high frequency motor (0 - 65535)
+     * @return true if the command was queued, false if the device is not recognized
+     */
+    public boolean rumbleAsync(InputDevice device, int lowFreqMotor, int highFreqMotor) {
+        return rumbleAsync(device, lowFreqMotor, highFreqMotor, null);
+    }
+
+    /**
+     * Plays a haptic effect on the given InputDevice, replacing any effect or rumble already
+     * playing. The effect is played from the rumble thread, and calling rumble() or
+     * rumbleAsync() for the device stops it.
+     * @param device Input device to play the effect on
+     * @param effect Effect to play
+     * @return true if the effect was started, false if the device is not recognized
+     */
+    public boolean playEffect(InputDevice device, SceHapticEffect effect) {
+        String controllerToken = getReportedControllerToken(device);
+        if (controllerToken != null) {
+            playEffect(controllerToken, effect);
+            return true;
+        }
+        return false;
+    }
+
+    void playEffect(String controllerToken, SceHapticEffect effect) {
+        rumbleEngine.playEffect(controllerToken, effect);
+    }
+
+    /**
+     * Stops the haptic effect playing on the given InputDevice
+     * @param device Input device to stop the effect on
+     * @return true if an effect was playing, false otherwise
+     */
+    public boolean cancelEffect(InputDevice device) {
+        String controllerToken = getControllerToken(device);
+        return controllerToken != null && cancelEffect(controllerToken);
+    }
+
+    boolean cancelEffect(String controllerToken) {
+        return rumbleEngine.cancelEffect(controllerToken);
+    }
+
     /**
      * Gets the category (remote vs controller) of an InputDevice
      * @param device Input device to query
@@ -242,12 +831,35 @@ public class SceManager {
     public SceCategory getCategory(InputDevice device) {
         String controllerToken = getControllerToken(device);
         if (controllerToken != null) {
-            try {
-                return binder.getCategory(controllerToken);
-            } catch (RemoteException e) {
-                e.printStackTrace();
+            return getCategory(controllerToken, devicePropertiesMap.get(controllerToken));
+        }
+        return SceCategory.UNKNOWN;
+    }
+
+    SceCategory getCategory(String controllerToken, DeviceProperties properties) {
+        if (properties != null && propertyCacheEnabled) {
+            return properties.category;
+        }
+        else if (properties == null) {
+            WarmStartCache.Entry warmStartEntry = getWarmStartEntry(controllerToken);
+            if (warmStartEntry != null) {
+                return warmStartEntry.category;
             }
         }
+
+        if (!isReported(controllerToken)) {
+            return SceCategory.UNKNOWN;
+        }
+
+        try {
+            SceCategory value = getTransport().getCategory(controllerToken);
+            if (properties != null) {
+                properties.category = value;
+            }
+            return value;
+        } catch (RemoteException e) {
+            logTransactionFailure(e);
+        }
         return SceCategory.UNKNOWN;
     }
 
@@ -259,15 +871,108 @@ public class SceManager {
     public int getBatteryPercentage(InputDevice device) {
         String controllerToken = getControllerToken(device);
         if (controllerToken != null) {
-            try {
-                return binder.getBatteryPercentage(controllerToken);
-            } catch (RemoteException e) {
-                e.printStackTrace();
+            return getBatteryPercentage(controllerToken, devicePropertiesMap.get(controllerToken));
+        }
+        return -1;
+    }
+
+    int getBatteryPercentage(String controllerToken, DeviceProperties properties) {
+        if (properties != null && propertyCacheEnabled) {
+            return properties.batteryPercentage;
+        }
+
+        if (!isReported(controllerToken)) {
+            return -1;
+        }
+
+        try {
+            int value = SceBatteryState.parseBatteryPercentage(getTransport().getBatteryState(controllerToken));
+            if (properties != null) {
+                properties.batteryPercentage = value;
             }
+            return value;
+        } catch (RemoteException e) {
+            logTransactionFailure(e);
         }
         return -1;
     }
 
+    /**
+     * Gets the full battery state of an InputDevice, including the fields the SHIELD
+     * AccessoryService reports in addition to the battery percentage. When the property
+     * cache is enabled, this copies the cached state without IPC or allocation, so the
+     * same SceBatteryState can be reused for repeated queries.
+     * @param device Input device to query
+     * @param batteryState Battery state to fill in
+     * @return true on success, false on failure
+     */
+    public boolean getBatteryState(InputDevice device, SceBatteryState batteryState) {
+        String controllerToken = getControllerToken(device);
+        if (controllerToken != null) {
+            return getBatteryState(controllerToken, devicePropertiesMap.get(controllerToken), batteryState);
+        }
+
+        batteryState.clear();
+        return false;
+    }
+
+    boolean getBatteryState(String controllerToken, DeviceProperties properties, SceBatteryState batteryState) {
+        if (properties != null && propertyCacheEnabled) {
+            SceBatteryState cachedBatteryState = properties.batteryState;
+            if (cachedBatteryState != null) {
+                batteryState.copyFrom(cachedBatteryState);
+                return cachedBatteryState.getBatteryPercentage() >= 0;
+            }
+        }
+
+        if (!isReported(controllerToken)) {
+            batteryState.clear();
+            return false;
+        }
+
+        try {
+            return batteryState.parse(getTransport().getBatteryState(controllerToken));
+        } catch (RemoteException e) {
+            logTransactionFailure(e);
+        }
+
+        batteryState.clear();
+        return false;
+    }
+
+    /**
+     * Estimates how fast the battery of an InputDevice is draining from the battery level
+     * changes reported since the device was added or its charging state last changed. This
+     * requires no IPC, so it's cheap enough to call every frame.
+     * @param device Input device to query
+     * @return Percent per hour, negative while charging, or NaN if there isn't enough history yet
+     */
+    public float getBatteryDrainRate(InputDevice device) {
+        String controllerToken = getControllerToken(device);
+        return controllerToken != null ? getBatteryDrainRate(devicePropertiesMap.get(controllerToken)) : Float.NaN;
+    }
+
+    float getBatteryDrainRate(DeviceProperties properties) {
+        BatteryHistory batteryHistory = properties != null ? properties.batteryHistory : null;
+        return batteryHistory != null ? batteryHistory.getDrainRatePerHour(eventDispatcher.uptimeMillis()) : Float.NaN;
+    }
+
+    /**
+     * Estimates the time until the battery of an InputDevice is empty, or full if it's
+     * charging. See {@link #getBatteryDrainRate(InputDevice)}.
+     * @param device Input device to query
+     * @return Time remaining in milliseconds or -1 if there isn't enough history yet
+     */
+    public long getBatteryTimeRemaining(InputDevice device) {
+        String controllerToken = getControllerToken(device);
+        return controllerToken != null ? getBatteryTimeRemaining(devicePropertiesMap.get(controllerToken)) : -1;
+    }
+
+    long getBatteryTimeRemaining(DeviceProperties properties) {
+        BatteryHistory batteryHistory = properties != null ? properties.batteryHistory : null;
+        return batteryHistory != null ? batteryHistory.getTimeRemainingMs(eventDispatcher.uptimeMillis()) : -1;
+    }
+
     /**
      * Gets the current charging state (charging vs not charging) of an InputDevice
      * @param device Input device to query
@@ -276,11 +981,28 @@ public class SceManager {
     public SceChargingState getChargingState(InputDevice device) {
         String controllerToken = getControllerToken(device);
         if (controllerToken != null) {
-            try {
-                return binder.getChargingState(controllerToken);
-            } catch (RemoteException e) {
-                e.printStackTrace();
+            return getChargingState(controllerToken, devicePropertiesMap.get(controllerToken));
+        }
+        return SceChargingState.UNKNOWN;
+    }
+
+    SceChargingState getChargingState(String controllerToken, DeviceProperties properties) {
+        if (properties != null && propertyCacheEnabled) {
+            return properties.chargingState;
+        }
+
+        if (!isReported(controllerToken)) {
+            return SceChargingState.UNKNOWN;
+        }
+
+        try {
+            SceChargingState value = getTransport().getChargingState(controllerToken);
+            if (properties != null) {
+                properties.chargingState = value;
             }
+            return value;
+        } catch (RemoteException e) {
+            logTransactionFailure(e);
         }
         return SceChargingState.UNKNOWN;
     }
@@ -293,11 +1015,28 @@ public class SceManager {
     public SceConnectionState getConnectionState(InputDevice device) {
         String controllerToken = getControllerToken(device);
         if (controllerToken != null) {
-            try {
-                return binder.getConnectionState(controllerToken);
-            } catch (RemoteException e) {
-                e.printStackTrace();
+            return getConnectionState(controllerToken, devicePropertiesMap.get(controllerToken));
+        }
+        return SceConnectionState.UNKNOWN;
+    }
+
+    SceConnectionState getConnectionState(String controllerToken, DeviceProperties properties) {
+        if (properties != null && propertyCacheEnabled) {
+            return properties.connectionState;
+        }
+
+        if (!isReported(controllerToken)) {
+            return SceConnectionState.UNKNOWN;
+        }
+
+        try {
+            SceConnectionState value = getTransport().getConnectionState(controllerToken);
+            if (properties != null) {
+                properties.connectionState = value;
             }
+            return value;
+        } catch (RemoteException e) {
+            logTransactionFailure(e);
         }
         return SceConnectionState.UNKNOWN;
     }
@@ -310,15 +1049,72 @@ public class SceManager {
     public SceConnectionType getConnectionType(InputDevice device) {
         String controllerToken = getControllerToken(device);
         if (controllerToken != null) {
-            try {
-                return binder.getConnectionType(controllerToken);
-            } catch (RemoteException e) {
-                e.printStackTrace();
+            return getConnectionType(controllerToken, devicePropertiesMap.get(controllerToken));
+        }
+        return SceConnectionType.UNKNOWN;
+    }
+
+    SceConnectionType getConnectionType(String controllerToken, DeviceProperties properties) {
+        if (properties != null && propertyCacheEnabled) {
+            return properties.connectionType;
+        }
+
+        if (!isReported(controllerToken)) {
+            return SceConnectionType.UNKNOWN;
+        }
+
+        try {
+            SceConnectionType value = getTransport().getConnectionType(controllerToken);
+            if (properties != null) {
+                properties.connectionType = value;
             }
+            return value;
+        } catch (RemoteException e) {
+            logTransactionFailure(e);
         }
         return SceConnectionType.UNKNOWN;
     }
 
+    /**
+     * Gets the user-visible nickname of an InputDevice
+     * @param device Input device to query
+     * @return Nickname or null on failure
+     */
+    public String getNickname(InputDevice device) {
+        String controllerToken = getControllerToken(device);
+        if (controllerToken != null) {
+            return getNickname(controllerToken, devicePropertiesMap.get(controllerToken));
+        }
+        return null;
+    }
+
+    String getNickname(String controllerToken, DeviceProperties properties) {
+        if (properties != null && propertyCacheEnabled) {
+            return properties.nickname;
+        }
+        else if (properties == null) {
+            WarmStartCache.Entry warmStartEntry = getWarmStartEntry(controllerToken);
+            if (warmStartEntry != null) {
+                return warmStartEntry.nickname;
+            }
+        }
+
+        if (!isReported(controllerToken)) {
+            return null;
+        }
+
+        try {
+            String value = getTransport().getNickname(controllerToken);
+            if (properties != null) {
+                properties.nickname = value;
+            }
+            return value;
+        } catch (RemoteException e) {
+            logTransactionFailure(e);
+        }
+        return null;
+    }
+
     /**
      * Plays a haptic effect or other form of identification for an InputDevice
      * @param device Input device to identify
@@ -326,12 +1122,18 @@ public class SceManager {
      */
     public boolean identify(InputDevice device) {
         String controllerToken = getControllerToken(device);
-        if (controllerToken != null) {
-            try {
-                return binder.identify(controllerToken);
-            } catch (RemoteException e) {
-                e.printStackTrace();
-            }
+        return controllerToken != null && identify(controllerToken);
+    }
+
+    boolean identify(String controllerToken) {
+        if (!isReported(controllerToken)) {
+            return false;
+        }
+
+        try {
+            return getTransport().identify(controllerToken);
+        } catch (RemoteException e) {
+            logTransactionFailure(e);
         }
         return false;
     }
@@ -344,11 +1146,28 @@ public class SceManager {
     public boolean hasHeadset(InputDevice device) {
         String controllerToken = getControllerToken(device);
         if (controllerToken != null) {
-            try {
-                return binder.hasHeadset(controllerToken);
-            } catch (RemoteException e) {
-                e.printStackTrace();
+            return hasHeadset(controllerToken, devicePropertiesMap.get(controllerToken));
+        }
+        return false;
+    }
+
+    boolean hasHeadset(String controllerToken, DeviceProperties properties) {
+        if (properties != null && propertyCacheEnabled) {
+            return properties.hasHeadset;
+        }
+
+        if (!isReported(controllerToken)) {
+            return false;
+        }
+
+        try {
+            boolean value = getTransport().hasHeadset(controllerToken);
+            if (properties != null) {
+                properties.hasHeadset = value;
             }
+            return value;
+        } catch (RemoteException e) {
+            logTransactionFailure(e);
         }
         return false;
     }
@@ -359,11 +1178,26 @@ public class SceManager {
      * Note: Starting is an asynchronous operation. It may not be possible to interact with
      * SceManager APIs until SceManager has bound to the SHIELD AccessoryService.
      *
-     * If this function returns true, stop() must be called when you're finished.
+     * If this function returns true, stop() must be called when you're finished. A stopped
+     * SceManager may be started again. Call release() once it's no longer needed.
      *
      * @return true if the SHIELD AccessoryService was available, false otherwise
      */
     public boolean start() {
+        if (!bindService()) {
+            // Nothing will make us ready, so don't keep answering from the warm start cache
+            warmStartActive = false;
+            return false;
+        }
+
+        started = true;
+        if (warmStartActive) {
+            reconnectHandler.postDelayed(warmStartTimeoutRunnable, WARM_START_TIMEOUT_MS);
+        }
+        return true;
+    }
+
+    private boolean bindService() {
         Intent intent = new Intent();
         intent.setClassName("com.nvidia.blakepairing", "com.nvidia.blakepairing.AccessoryService");
         try {
@@ -374,6 +1208,7 @@ public class SceManager {
                 return false;
             }
 
+            bound = true;
             return true;
         } catch (SecurityException e) {
             context.unbindService(serviceConnection);
@@ -382,48 +1217,147 @@ public class SceManager {
     }
 
     private void clearDeviceState() {
-        tokenToDeviceIdMap.clear();
-        deviceIdToTokenMap.clear();
-
-        for (Map.Entry<String, Timer> entry : activeRumbleTimerMap.entrySet()) {
-            // Stop the repeating timer
-            entry.getValue().cancel();
-
-            // If our binder is still alive, send the rumble stop command
-            if (binder != null) {
-                try {
-                    binder.rumble(entry.getKey(), 0, 0);
-                } catch (RemoteException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-        activeRumbleTimerMap.clear();
+        eventDispatcher.reset(false);
     }
 
     /**
      * Stops the SceManager. No further listener callbacks will be invoked.
      */
     public void stop() {
+        started = false;
+        reconnectHandler.removeCallbacks(reconnectRunnable);
+        reconnectDelayMs = INITIAL_RECONNECT_DELAY_MS;
+        reconnectHandler.removeCallbacks(warmStartTimeoutRunnable);
+        warmStartActive = false;
+
+        // Discard any events that arrive before we unregister our listener
+        eventDispatcher.setTransport(null);
         clearDeviceState();
 
-        if (listenerId != 0) {
+        SceTransport transport = this.transport;
+        if (listenerId != 0 && transport != null) {
             try {
-                binder.unregisterListener(listenerId);
+                transport.unregisterListener(listenerId);
             } catch (RemoteException e) {
-                e.printStackTrace();
+                logTransactionFailure(e);
             }
-            listenerId = 0;
         }
+        listenerId = 0;
 
-        if (binder != null) {
+        IBinder serviceBinder = this.serviceBinder;
+        if (serviceBinder != null && deathRecipient != null) {
+            serviceBinder.unlinkToDeath(deathRecipient, 0);
+        }
+        deathRecipient = null;
+
+        if (bound) {
             context.unbindService(serviceConnection);
-            binder = null;
+            bound = false;
+        }
+        this.serviceBinder = null;
+        closeTransport();
+        rumbleEngine.setTransport(null);
+    }
+
+    /**
+     * Stops the SceManager if it's started and shuts down the threads it created. The
+     * SceManager can't be used again afterwards. A rumble executor or Looper provided by
+     * the caller is not shut down.
+     */
+    public void release() {
+        stop();
+        eventDispatcher.shutdown();
+        eventScheduler.shutdown();
+        healthScheduler.shutdown();
+        if (ownedRumbleScheduler != null) {
+            ownedRumbleScheduler.shutdown();
         }
     }
 
     private String getControllerToken(InputDevice device) {
-        return deviceIdToTokenMap.get(device.getId());
+        String controllerToken = deviceTable.getToken(device.getId());
+        if (controllerToken == null && warmStartActive) {
+            // Until we're ready, assume devices from previous launches are still around
+            WarmStartCache warmStartCache = this.warmStartCache;
+            WarmStartCache.Entry entry = warmStartCache != null ? warmStartCache.getByDescriptor(device.getDescriptor()) : null;
+            if (entry != null) {
+                controllerToken = entry.controllerToken;
+            }
+        }
+        return controllerToken;
+    }
+
+    // Returns the token of a device only if the service has reported it. Rumble is limited to
+    // these, so the RumbleEngine doesn't track devices from the warm start cache that may be gone.
+    private String getReportedControllerToken(InputDevice device) {
+        return deviceTable.getToken(device.getId());
+    }
+
+    // Devices known only from the warm start cache may be gone and, before we're bound, there's
+    // no service to ask. Queries about them return unknown values without making a transaction.
+    private boolean isReported(String controllerToken) {
+        return deviceTable.getDeviceId(controllerToken) >= 0;
+    }
+
+    // Returns the warm start cache entry for a controller if we're still answering from it
+    private WarmStartCache.Entry getWarmStartEntry(String controllerToken) {
+        WarmStartCache warmStartCache = this.warmStartCache;
+        return warmStartActive && warmStartCache != null ? warmStartCache.getByToken(controllerToken) : null;
+    }
+
+    private void updateWarmStartCache(int inputDeviceId) {
+        WarmStartCache warmStartCache = this.warmStartCache;
+        String controllerToken = deviceTable.getToken(inputDeviceId);
+        InputDevice device = InputDevice.getDevice(inputDeviceId);
+        if (warmStartCache == null || controllerToken == null || device == null) {
+            return;
+        }
+
+        // The properties may not be cached yet when a device is first added, but we must
+        // not take them from the warm start cache itself
+        SceCategory category;
+        String nickname;
+        DeviceProperties properties = devicePropertiesMap.get(controllerToken);
+        if (properties != null) {
+            category = properties.category;
+            nickname = properties.nickname;
+        }
+        else {
+            try {
+                SceTransport transport = getTransport();
+                category = transport.getCategory(controllerToken);
+                nickname = transport.getNickname(controllerToken);
+            } catch (RemoteException e) {
+                logTransactionFailure(e);
+                return;
+            }
+        }
+
+        warmStartCache.update(controllerToken, device.getDescriptor(), category, nickname);
+    }
+
+    int getInputDeviceId(String controllerToken) {
+        return deviceTable.getDeviceId(controllerToken);
+    }
+
+    public interface SceReadyCallback {
+        /**
+         * Invoked when SceManager has bound to the SHIELD AccessoryService and recognized
+         * the devices that were connected at the time. See {@link SceManager#awaitReady(long)}
+         * for the limits of this.
+         */
+        void onReady();
+    }
+
+    public interface SceRumbleCallback {
+        /**
+         * Invoked when a rumble command queued by rumbleAsync() has completed. If the command
+         * was replaced by a newer one before it was sent, this reports the outcome of the newer
+         * command. This may be invoked on the rumble thread or on the thread that issued the
+         * command.
+         * @param success true if the rumble command succeeded, false otherwise
+         */
+        void onRumbleComplete(boolean success);
     }
 
     public abstract static class SceDeviceListener {
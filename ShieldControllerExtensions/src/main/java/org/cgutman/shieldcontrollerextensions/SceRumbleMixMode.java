@@ -0,0 +1,22 @@
+package org.cgutman.shieldcontrollerextensions;
+
+/**
+ * How rumble channels on the same device are combined
+ */
+public enum SceRumbleMixMode {
+    /**
+     * Each motor plays the highest value of any channel
+     */
+    MAX,
+
+    /**
+     * Each motor plays the sum of all channels, up to its maximum value
+     */
+    SUM,
+
+    /**
+     * Only the rumbling channel with the highest priority is played. Among channels of
+     * equal priority, the most recently updated one is played.
+     */
+    PRIORITY
+}
@@ -0,0 +1,74 @@
+package org.cgutman.shieldcontrollerextensions;
+
+/**
+ * Immutable snapshot of SceManager statistics. Counters accumulate from the time the
+ * SceManager is constructed, including across service reconnections.
+ */
+public final class SceStats {
+    private final SceLatencyStats[] transactionLatencies;
+    private final long[] transactionFailures;
+    private final long shortCircuitCount;
+    private final SceLatencyStats callbackDispatchLatency;
+    private final int activeKeepaliveCount;
+
+    SceStats(StatsCollector collector, int activeKeepaliveCount) {
+        SceTransaction[] transactions = SceTransaction.values();
+        transactionLatencies = new SceLatencyStats[transactions.length];
+        transactionFailures = new long[transactions.length];
+        for (int i = 0; i < transactions.length; i++) {
+            transactionLatencies[i] = new SceLatencyStats(collector.getTransactionLatency(transactions[i]));
+            transactionFailures[i] = collector.getTransactionFailureCount(transactions[i]);
+        }
+
+        shortCircuitCount = collector.getShortCircuitCount();
+        callbackDispatchLatency = new SceLatencyStats(collector.getCallbackDispatchLatency());
+        this.activeKeepaliveCount = activeKeepaliveCount;
+    }
+
+    /**
+     * @param transaction Transaction type
+     * @return Number of transactions of this type, including failed ones
+     */
+    public long getTransactionCount(SceTransaction transaction) {
+        return transactionLatencies[transaction.ordinal()].getCount();
+    }
+
+    /**
+     * @param transaction Transaction type
+     * @return Number of transactions of this type that threw a RemoteException, or for
+     * rumble and identify commands, that the SHIELD AccessoryService reported as failed
+     */
+    public long getTransactionFailureCount(SceTransaction transaction) {
+        return transactionFailures[transaction.ordinal()];
+    }
+
+    /**
+     * @param transaction Transaction type
+     * @return Latency of transactions of this type
+     */
+    public SceLatencyStats getTransactionLatency(SceTransaction transaction) {
+        return transactionLatencies[transaction.ordinal()];
+    }
+
+    /**
+     * @return Number of transactions skipped because their device was unresponsive.
+     * These are not included in the transaction counts.
+     */
+    public long getShortCircuitCount() {
+        return shortCircuitCount;
+    }
+
+    /**
+     * @return Time from queuing each listener callback to invoking it
+     */
+    public SceLatencyStats getCallbackDispatchLatency() {
+        return callbackDispatchLatency;
+    }
+
+    /**
+     * @return Number of devices with rumble effects currently being kept alive
+     */
+    public int getActiveKeepaliveCount() {
+        return activeKeepaliveCount;
+    }
+}
@@ -0,0 +1,20 @@
+package org.cgutman.shieldcontrollerextensions;
+
+/**
+ * Types of transactions made with the SHIELD AccessoryService
+ */
+public enum SceTransaction {
+    REGISTER_LISTENER,
+    UNREGISTER_LISTENER,
+    GET_INPUT_DEVICE_ID,
+    RUMBLE,
+    RUMBLE_WITH_DURATION,
+    GET_CATEGORY,
+    GET_NICKNAME,
+    GET_BATTERY_STATE,
+    GET_CHARGING_STATE,
+    GET_CONNECTION_STATE,
+    GET_CONNECTION_TYPE,
+    IDENTIFY,
+    HAS_HEADSET
+}
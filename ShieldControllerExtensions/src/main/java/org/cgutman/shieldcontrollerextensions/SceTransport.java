@@ -0,0 +1,38 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import android.os.RemoteException;
+
+// Transport used to communicate with the SHIELD AccessoryService.
+//
+// IExposedControllerBinderWrapper is the real implementation that talks to the service over
+// Binder. Everything above this interface (rumble scheduling, device mapping, event dispatch)
+// is independent of Android, so it can be driven by FakeSceTransport on a plain JVM.
+interface SceTransport {
+    interface Listener {
+        void onDeviceAdded(String controllerToken);
+        void onDeviceChanged(String controllerToken, int changeType);
+        void onDeviceRemoved(String controllerToken);
+    }
+
+    // Returns a listener ID to pass to unregisterListener()
+    int registerListener(Listener listener) throws RemoteException;
+    boolean unregisterListener(int listenerId) throws RemoteException;
+
+    int getInputDeviceId(String controllerToken) throws RemoteException;
+
+    // Rumble duration maximum of 1 second
+    boolean rumble(String controllerToken, int lowFreqMotor, int highFreqMotor) throws RemoteException;
+
+    // Rumble duration maximum of 1.5 seconds
+    boolean rumbleWithDuration(String controllerToken, int lowFreqMotor, int highFreqMotor, long durationMs) throws RemoteException;
+
+    SceCategory getCategory(String controllerToken) throws RemoteException;
+    String getNickname(String controllerToken) throws RemoteException;
+    // Returns the ";"-delimited battery state string, which SceBatteryState parses
+    String getBatteryState(String controllerToken) throws RemoteException;
+    SceChargingState getChargingState(String controllerToken) throws RemoteException;
+    SceConnectionState getConnectionState(String controllerToken) throws RemoteException;
+    SceConnectionType getConnectionType(String controllerToken) throws RemoteException;
+    boolean identify(String controllerToken) throws RemoteException;
+    boolean hasHeadset(String controllerToken) throws RemoteException;
+}
@@ -0,0 +1,41 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+// Runs tasks one at a time in submission order on an underlying executor, which may itself
+// run tasks concurrently. Each listener gets its own SerialExecutor, so callbacks to a given
+// listener are ordered while a slow listener can't hold up the others.
+class SerialExecutor implements Executor {
+    private final Executor executor;
+    private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+    private Runnable activeTask;
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(final Runnable task) {
+        tasks.add(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            }
+        });
+        if (activeTask == null) {
+            scheduleNext();
+        }
+    }
+
+    private synchronized void scheduleNext() {
+        activeTask = tasks.poll();
+        if (activeTask != null) {
+            executor.execute(activeTask);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Counters and latency histograms for transactions with the SHIELD AccessoryService and
+// for delivery of listener callbacks. Everything here is lock-free, since it's updated on
+// every transaction and callback.
+class StatsCollector {
+    private final LatencyHistogram[] transactionLatencies;
+    private final AtomicLongArray transactionFailures = new AtomicLongArray(SceTransaction.values().length);
+    private final LatencyHistogram callbackDispatchLatency = new LatencyHistogram();
+    private final AtomicLong shortCircuitCount = new AtomicLong();
+
+    StatsCollector() {
+        transactionLatencies = new LatencyHistogram[SceTransaction.values().length];
+        for (int i = 0; i < transactionLatencies.length; i++) {
+            transactionLatencies[i] = new LatencyHistogram();
+        }
+    }
+
+    void recordTransaction(SceTransaction transaction, long startTimeNanos) {
+        transactionLatencies[transaction.ordinal()].record(System.nanoTime() - startTimeNanos);
+    }
+
+    void recordTransactionFailure(SceTransaction transaction) {
+        transactionFailures.incrementAndGet(transaction.ordinal());
+    }
+
+    // Records a transaction that was skipped because the controller is unresponsive
+    void recordShortCircuit() {
+        shortCircuitCount.incrementAndGet();
+    }
+
+    // Records the time between queuing a listener callback and invoking it
+    void recordCallbackDispatch(long queueTimeNanos) {
+        callbackDispatchLatency.record(System.nanoTime() - queueTimeNanos);
+    }
+
+    LatencyHistogram getTransactionLatency(SceTransaction transaction) {
+        return transactionLatencies[transaction.ordinal()];
+    }
+
+    long getTransactionFailureCount(SceTransaction transaction) {
+        return transactionFailures.get(transaction.ordinal());
+    }
+
+    long getShortCircuitCount() {
+        return shortCircuitCount.get();
+    }
+
+    LatencyHistogram getCallbackDispatchLatency() {
+        return callbackDispatchLatency;
+    }
+}
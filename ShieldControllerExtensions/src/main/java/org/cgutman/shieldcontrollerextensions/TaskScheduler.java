@@ -0,0 +1,11 @@
+package org.cgutman.shieldcontrollerextensions;
+
+// Abstraction over the thread that runs SceManager's deferred work. This lets callers
+// provide their own ScheduledExecutorService or Looper instead of using our own thread.
+interface TaskScheduler {
+    // Returns the current time in milliseconds on the same clock used for postDelayed()
+    long uptimeMillis();
+
+    void post(Runnable task);
+    void postDelayed(Runnable task, long delayMs);
+}
@@ -0,0 +1,181 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Metadata about controllers seen in previous runs of the app, persisted so we can recognize
+// them before the SHIELD AccessoryService has told us about them.
+//
+// Input device IDs are not stable across reboots, so controllers are matched by their input
+// device descriptor. The file is small (a few entries of short strings), so it's read in one
+// pass when the cache is enabled and rewritten in full when an entry changes. Writes go to a
+// temporary file that is renamed over the cache, so a crash can't leave it truncated.
+class WarmStartCache {
+    // Bump the version if the format changes. Files with another version are ignored.
+    private static final int MAGIC = 0x53434557;
+    private static final int VERSION = 1;
+
+    // The oldest entries are evicted beyond this count
+    static final int MAX_ENTRIES = 16;
+
+    static final class Entry {
+        final String controllerToken;
+        final String descriptor;
+        final SceCategory category;
+        final String nickname;
+
+        Entry(String controllerToken, String descriptor, SceCategory category, String nickname) {
+            this.controllerToken = controllerToken;
+            this.descriptor = descriptor;
+            this.category = category;
+            this.nickname = nickname;
+        }
+    }
+
+    private final File file;
+
+    // Entries from oldest to newest. Guarded by this.
+    private final ArrayList<Entry> entries = new ArrayList<>();
+
+    // Immutable lookup tables published after each change, since lookups happen on the
+    // query path. Each entry is indexed by both its descriptor and its token.
+    private volatile HashMap<String, Entry> descriptorIndex = new HashMap<>();
+    private volatile HashMap<String, Entry> tokenIndex = new HashMap<>();
+
+    WarmStartCache(File file) {
+        this.file = file;
+    }
+
+    Entry getByDescriptor(String descriptor) {
+        return descriptor != null ? descriptorIndex.get(descriptor) : null;
+    }
+
+    Entry getByToken(String controllerToken) {
+        return tokenIndex.get(controllerToken);
+    }
+
+    synchronized void load() {
+        entries.clear();
+        if (file.exists()) {
+            DataInputStream input = null;
+            try {
+                input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (input.readInt() == MAGIC && input.readInt() == VERSION) {
+                    SceCategory[] categories = SceCategory.values();
+                    int count = input.readInt();
+                    for (int i = 0; i < count && i < MAX_ENTRIES; i++) {
+                        String controllerToken = input.readUTF();
+                        String descriptor = input.readUTF();
+                        int category = input.readByte();
+                        String nickname = input.readBoolean() ? input.readUTF() : null;
+                        entries.add(new Entry(controllerToken, descriptor,
+                                category >= 0 && category < categories.length ? categories[category] : SceCategory.UNKNOWN,
+                                nickname));
+                    }
+                }
+            } catch (IOException e) {
+                // Anything we read before the error is still usable
+                e.printStackTrace();
+            } finally {
+                if (input != null) {
+                    try {
+                        input.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+        publishLocked();
+    }
+
+    // Records the current metadata of a controller and saves the cache if it changed
+    synchronized void update(String controllerToken, String descriptor, SceCategory category, String nickname) {
+        if (controllerToken == null || descriptor == null) {
+            return;
+        }
+
+        // Most launches see the same controllers, so avoid rewriting the file for them
+        Entry entry = tokenIndex.get(controllerToken);
+        if (entry != null && entry.descriptor.equals(descriptor) && entry.category == category &&
+                (nickname == null ? entry.nickname == null : nickname.equals(entry.nickname))) {
+            return;
+        }
+
+        // The token or descriptor may have been paired with something else before
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            entry = entries.get(i);
+            if (entry.controllerToken.equals(controllerToken) || entry.descriptor.equals(descriptor)) {
+                entries.remove(i);
+            }
+        }
+
+        entries.add(new Entry(controllerToken, descriptor, category, nickname));
+        while (entries.size() > MAX_ENTRIES) {
+            entries.remove(0);
+        }
+
+        publishLocked();
+        saveLocked();
+    }
+
+    synchronized void delete() {
+        entries.clear();
+        publishLocked();
+        // Nothing else to do if this fails, since the cache is disabled either way
+        file.delete();
+    }
+
+    private void publishLocked() {
+        HashMap<String, Entry> descriptorIndex = new HashMap<>();
+        HashMap<String, Entry> tokenIndex = new HashMap<>();
+        for (Entry entry : entries) {
+            descriptorIndex.put(entry.descriptor, entry);
+            tokenIndex.put(entry.controllerToken, entry);
+        }
+        this.descriptorIndex = descriptorIndex;
+        this.tokenIndex = tokenIndex;
+    }
+
+    private void saveLocked() {
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream output = null;
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(entries.size());
+            for (Entry entry : entries) {
+                output.writeUTF(entry.controllerToken);
+                output.writeUTF(entry.descriptor);
+                output.writeByte(entry.category.ordinal());
+                output.writeBoolean(entry.nickname != null);
+                if (entry.nickname != null) {
+                    output.writeUTF(entry.nickname);
+                }
+            }
+            output.close();
+            output = null;
+
+            if (!tempFile.renameTo(file)) {
+                throw new IOException("Failed to rename " + tempFile + " to " + file);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
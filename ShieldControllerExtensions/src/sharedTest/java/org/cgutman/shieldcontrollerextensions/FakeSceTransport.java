@@ -0,0 +1,218 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import android.os.RemoteException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// In-memory SceTransport for exercising SceManager internals without a SHIELD. This is shared
+// by the unit tests and the benchmarks, and isn't part of the library.
+//
+// Devices are added, changed, and removed by calling the methods below, which invoke the
+// registered listeners synchronously (much like binder callbacks from the real service).
+// The latency of each transaction and transaction failures can be scripted to simulate a
+// slow or misbehaving AccessoryService.
+class FakeSceTransport implements SceTransport {
+    static class FakeDevice {
+        volatile int inputDeviceId;
+        volatile int batteryPercentage = 100;
+        // Fields reported after the battery percentage in the battery state string
+        volatile String extraBatteryFields;
+        volatile SceChargingState chargingState = SceChargingState.NOT_CHARGING;
+        volatile SceConnectionState connectionState = SceConnectionState.CONNECTED;
+        volatile SceConnectionType connectionType = SceConnectionType.WIRELESS;
+        volatile SceCategory category = SceCategory.CONTROLLER;
+        volatile String nickname;
+        volatile boolean hasHeadset;
+
+        // Set to make all transactions for this device return failure
+        volatile boolean failing;
+
+        volatile int lowFreqMotor;
+        volatile int highFreqMotor;
+        final AtomicLong rumbleCount = new AtomicLong();
+    }
+
+    private final ConcurrentHashMap<String, FakeDevice> devices = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger nextListenerId = new AtomicInteger(1);
+    private final ConcurrentHashMap<Integer, Listener> listenerIds = new ConcurrentHashMap<>();
+
+    private final AtomicLong transactionCount = new AtomicLong();
+    private final AtomicInteger failuresRemaining = new AtomicInteger();
+    private volatile long latencyNanos;
+
+    // Sets the time each transaction takes to complete
+    void setLatencyNanos(long latencyNanos) {
+        this.latencyNanos = latencyNanos;
+    }
+
+    // Makes the next count transactions throw a RemoteException
+    void failNextTransactions(int count) {
+        failuresRemaining.set(count);
+    }
+
+    long getTransactionCount() {
+        return transactionCount.get();
+    }
+
+    FakeDevice getDevice(String controllerToken) {
+        return devices.get(controllerToken);
+    }
+
+    FakeDevice addDevice(String controllerToken, int inputDeviceId) {
+        FakeDevice device = new FakeDevice();
+        device.inputDeviceId = inputDeviceId;
+        device.nickname = controllerToken;
+        devices.put(controllerToken, device);
+
+        for (Listener listener : listeners) {
+            listener.onDeviceAdded(controllerToken);
+        }
+        return device;
+    }
+
+    void removeDevice(String controllerToken) {
+        if (devices.remove(controllerToken) != null) {
+            for (Listener listener : listeners) {
+                listener.onDeviceRemoved(controllerToken);
+            }
+        }
+    }
+
+    // Notifies listeners of a change. The caller is expected to update the FakeDevice first.
+    void changeDevice(String controllerToken, int changeType) {
+        for (Listener listener : listeners) {
+            listener.onDeviceChanged(controllerToken, changeType);
+        }
+    }
+
+    private FakeDevice transact(String controllerToken) throws RemoteException {
+        transactionCount.incrementAndGet();
+
+        long latencyNanos = this.latencyNanos;
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+
+        for (;;) {
+            int failures = failuresRemaining.get();
+            if (failures <= 0) {
+                break;
+            }
+            else if (failuresRemaining.compareAndSet(failures, failures - 1)) {
+                throw new RemoteException("Scripted failure");
+            }
+        }
+
+        if (controllerToken == null) {
+            return null;
+        }
+
+        FakeDevice device = devices.get(controllerToken);
+        return device != null && !device.failing ? device : null;
+    }
+
+    @Override
+    public int registerListener(Listener listener) throws RemoteException {
+        transact(null);
+
+        int listenerId = nextListenerId.getAndIncrement();
+        listenerIds.put(listenerId, listener);
+        listeners.add(listener);
+
+        // Like the real service, report existing devices to the new listener
+        for (String controllerToken : devices.keySet()) {
+            listener.onDeviceAdded(controllerToken);
+        }
+        return listenerId;
+    }
+
+    @Override
+    public boolean unregisterListener(int listenerId) throws RemoteException {
+        transact(null);
+
+        Listener listener = listenerIds.remove(listenerId);
+        return listener != null && listeners.remove(listener);
+    }
+
+    @Override
+    public int getInputDeviceId(String controllerToken) throws RemoteException {
+        FakeDevice device = transact(controllerToken);
+        return device != null ? device.inputDeviceId : -1;
+    }
+
+    @Override
+    public boolean rumble(String controllerToken, int lowFreqMotor, int highFreqMotor) throws RemoteException {
+        return rumbleWithDuration(controllerToken, lowFreqMotor, highFreqMotor, 1000);
+    }
+
+    @Override
+    public boolean rumbleWithDuration(String controllerToken, int lowFreqMotor, int highFreqMotor, long durationMs) throws RemoteException {
+        FakeDevice device = transact(controllerToken);
+        if (device == null) {
+            return false;
+        }
+
+        device.lowFreqMotor = lowFreqMotor;
+        device.highFreqMotor = highFreqMotor;
+        device.rumbleCount.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public SceCategory getCategory(String controllerToken) throws RemoteException {
+        FakeDevice device = transact(controllerToken);
+        return device != null ? device.category : SceCategory.UNKNOWN;
+    }
+
+    @Override
+    public String getNickname(String controllerToken) throws RemoteException {
+        FakeDevice device = transact(controllerToken);
+        return device != null ? device.nickname : null;
+    }
+
+    @Override
+    public String getBatteryState(String controllerToken) throws RemoteException {
+        FakeDevice device = transact(controllerToken);
+        if (device == null) {
+            return null;
+        }
+
+        String extraBatteryFields = device.extraBatteryFields;
+        return extraBatteryFields != null ? device.batteryPercentage + ";" + extraBatteryFields :
+                String.valueOf(device.batteryPercentage);
+    }
+
+    @Override
+    public SceChargingState getChargingState(String controllerToken) throws RemoteException {
+        FakeDevice device = transact(controllerToken);
+        return device != null ? device.chargingState : SceChargingState.UNKNOWN;
+    }
+
+    @Override
+    public SceConnectionState getConnectionState(String controllerToken) throws RemoteException {
+        FakeDevice device = transact(controllerToken);
+        return device != null ? device.connectionState : SceConnectionState.UNKNOWN;
+    }
+
+    @Override
+    public SceConnectionType getConnectionType(String controllerToken) throws RemoteException {
+        FakeDevice device = transact(controllerToken);
+        return device != null ? device.connectionType : SceConnectionType.UNKNOWN;
+    }
+
+    @Override
+    public boolean identify(String controllerToken) throws RemoteException {
+        return transact(controllerToken) != null;
+    }
+
+    @Override
+    public boolean hasHeadset(String controllerToken) throws RemoteException {
+        FakeDevice device = transact(controllerToken);
+        return device != null && device.hasHeadset;
+    }
+}
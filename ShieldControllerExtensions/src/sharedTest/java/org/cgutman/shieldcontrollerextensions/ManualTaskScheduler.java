@@ -0,0 +1,97 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+// TaskScheduler with a virtual clock. Tasks only run when the clock is advanced, so
+// benchmarks can measure scheduling overhead and tests can check timing without waiting on
+// real time. Due tasks run in order of their run time, then in the order they were posted.
+class ManualTaskScheduler implements TaskScheduler {
+    private static class ScheduledTask {
+        final Runnable task;
+        final long runTime;
+
+        ScheduledTask(Runnable task, long runTime) {
+            this.task = task;
+            this.runTime = runTime;
+        }
+    }
+
+    // Sorting is stable, so tasks with the same run time keep their posting order
+    private static final Comparator<ScheduledTask> RUN_TIME_ORDER = new Comparator<ScheduledTask>() {
+        @Override
+        public int compare(ScheduledTask a, ScheduledTask b) {
+            return Long.compare(a.runTime, b.runTime);
+        }
+    };
+
+    private final ArrayList<ScheduledTask> tasks = new ArrayList<>();
+    private final ArrayList<ScheduledTask> dueTasks = new ArrayList<>();
+    private long now;
+
+    @Override
+    public synchronized long uptimeMillis() {
+        return now;
+    }
+
+    @Override
+    public void post(Runnable task) {
+        postDelayed(task, 0);
+    }
+
+    @Override
+    public synchronized void postDelayed(Runnable task, long delayMs) {
+        tasks.add(new ScheduledTask(task, now + delayMs));
+    }
+
+    // Advances the clock and runs all tasks that are due, including any they schedule
+    void advanceBy(long deltaMs) {
+        synchronized (this) {
+            now += deltaMs;
+        }
+        runDueTasks();
+    }
+
+    // Advances the clock to the earliest scheduled task and runs all tasks that are due then,
+    // including any they schedule. Returns false if no tasks are scheduled.
+    boolean advanceToNextTask() {
+        synchronized (this) {
+            if (tasks.isEmpty()) {
+                return false;
+            }
+
+            long nextRunTime = Long.MAX_VALUE;
+            for (int i = 0; i < tasks.size(); i++) {
+                nextRunTime = Math.min(nextRunTime, tasks.get(i).runTime);
+            }
+            now = Math.max(now, nextRunTime);
+        }
+        runDueTasks();
+        return true;
+    }
+
+    private void runDueTasks() {
+        for (;;) {
+            synchronized (this) {
+                for (int i = 0; i < tasks.size(); ) {
+                    if (tasks.get(i).runTime <= now) {
+                        dueTasks.add(tasks.remove(i));
+                    }
+                    else {
+                        i++;
+                    }
+                }
+                if (dueTasks.isEmpty()) {
+                    return;
+                }
+                Collections.sort(dueTasks, RUN_TIME_ORDER);
+            }
+
+            for (int i = 0; i < dueTasks.size(); i++) {
+                dueTasks.get(i).task.run();
+            }
+            dueTasks.clear();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BatteryHistoryTest {
+    private static final long MINUTE_MS = 60 * 1000;
+
+    private BatteryHistory batteryHistory;
+
+    @Before
+    public void setupBatteryHistory() {
+        batteryHistory = new BatteryHistory();
+    }
+
+    @Test
+    public void testNoEstimateUntilTwoLevelChanges() {
+        batteryHistory.reset(90, false, 0);
+        assertTrue(Float.isNaN(batteryHistory.getDrainRatePerHour(0)));
+        assertEquals(-1, batteryHistory.getTimeRemainingMs(0));
+
+        // The level reported on reset could be anywhere within its step, so it isn't used
+        batteryHistory.recordBatteryPercentage(89, 10 * MINUTE_MS);
+        assertTrue(Float.isNaN(batteryHistory.getDrainRatePerHour(10 * MINUTE_MS)));
+
+        batteryHistory.recordBatteryPercentage(88, 11 * MINUTE_MS);
+        assertEquals(60, batteryHistory.getDrainRatePerHour(11 * MINUTE_MS), 0.01);
+    }
+
+    @Test
+    public void testDraining() {
+        batteryHistory.reset(90, false, 0);
+        batteryHistory.recordBatteryPercentage(89, MINUTE_MS);
+        batteryHistory.recordBatteryPercentage(88, 2 * MINUTE_MS);
+        batteryHistory.recordBatteryPercentage(87, 3 * MINUTE_MS);
+
+        assertEquals(60, batteryHistory.getDrainRatePerHour(3 * MINUTE_MS), 0.01);
+        assertEquals(87 * MINUTE_MS, batteryHistory.getTimeRemainingMs(3 * MINUTE_MS), 1);
+
+        // Time since the last sample counts down the estimate
+        assertEquals(86 * MINUTE_MS + 30 * 1000, batteryHistory.getTimeRemainingMs(3 * MINUTE_MS + 30 * 1000), 1);
+    }
+
+    @Test
+    public void testLeastSquaresFit() {
+        // Uneven steps around a rate of 1% per minute
+        batteryHistory.reset(90, false, 0);
+        batteryHistory.recordBatteryPercentage(89, 0);
+        batteryHistory.recordBatteryPercentage(88, 50 * 1000);
+        batteryHistory.recordBatteryPercentage(87, 130 * 1000);
+        batteryHistory.recordBatteryPercentage(86, 180 * 1000);
+
+        assertEquals(60, batteryHistory.getDrainRatePerHour(180 * 1000), 3);
+    }
+
+    @Test
+    public void testRateSlowsWhenLevelStalls() {
+        batteryHistory.reset(90, false, 0);
+        batteryHistory.recordBatteryPercentage(89, MINUTE_MS);
+        batteryHistory.recordBatteryPercentage(88, 2 * MINUTE_MS);
+
+        // Without another level change in 2 minutes, the rate can be at most 1% per 2 minutes
+        assertEquals(30, batteryHistory.getDrainRatePerHour(4 * MINUTE_MS), 0.01);
+    }
+
+    @Test
+    public void testCharging() {
+        batteryHistory.reset(50, true, 0);
+        batteryHistory.recordBatteryPercentage(51, MINUTE_MS);
+        batteryHistory.recordBatteryPercentage(52, 2 * MINUTE_MS);
+
+        assertEquals(-60, batteryHistory.getDrainRatePerHour(2 * MINUTE_MS), 0.01);
+        assertEquals(48 * MINUTE_MS, batteryHistory.getTimeRemainingMs(2 * MINUTE_MS), 1);
+    }
+
+    @Test
+    public void testLevelMovingTheWrongWay() {
+        batteryHistory.reset(50, true, 0);
+        batteryHistory.recordBatteryPercentage(49, MINUTE_MS);
+        batteryHistory.recordBatteryPercentage(48, 2 * MINUTE_MS);
+
+        assertEquals(60, batteryHistory.getDrainRatePerHour(2 * MINUTE_MS), 0.01);
+        assertEquals(-1, batteryHistory.getTimeRemainingMs(2 * MINUTE_MS));
+    }
+
+    @Test
+    public void testResetDiscardsHistory() {
+        batteryHistory.reset(90, false, 0);
+        batteryHistory.recordBatteryPercentage(89, MINUTE_MS);
+        batteryHistory.recordBatteryPercentage(88, 2 * MINUTE_MS);
+
+        batteryHistory.reset(88, true, 3 * MINUTE_MS);
+        assertTrue(Float.isNaN(batteryHistory.getDrainRatePerHour(3 * MINUTE_MS)));
+        assertEquals(-1, batteryHistory.getTimeRemainingMs(3 * MINUTE_MS));
+    }
+
+    @Test
+    public void testOldSamplesDropped() {
+        // A slow rate followed by a full history of a fast one
+        batteryHistory.reset(100, false, 0);
+        batteryHistory.recordBatteryPercentage(99, 0);
+        batteryHistory.recordBatteryPercentage(98, 60 * MINUTE_MS);
+
+        long now = 60 * MINUTE_MS;
+        for (int i = 0; i < BatteryHistory.CAPACITY; i++) {
+            now += MINUTE_MS;
+            batteryHistory.recordBatteryPercentage(97 - i, now);
+        }
+
+        assertEquals(60, batteryHistory.getDrainRatePerHour(now), 0.01);
+    }
+}
@@ -0,0 +1,205 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import android.os.RemoteException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class CircuitBreakerSceTransportTest {
+    private static final String TOKEN = "controller";
+
+    private ManualTaskScheduler probeScheduler;
+    private FakeSceTransport transport;
+    private FakeSceTransport.FakeDevice device;
+    private CircuitBreakerSceTransport circuitBreaker;
+
+    @Before
+    public void setupCircuitBreaker() {
+        probeScheduler = new ManualTaskScheduler();
+        transport = new FakeSceTransport();
+        device = transport.addDevice(TOKEN, 1);
+        circuitBreaker = new CircuitBreakerSceTransport(transport, probeScheduler, new StatsCollector());
+    }
+
+    private void openCircuit() throws RemoteException {
+        device.failing = true;
+        for (int i = 0; i < CircuitBreakerSceTransport.FAILURE_THRESHOLD; i++) {
+            assertFalse(circuitBreaker.rumble(TOKEN, 1, 1));
+        }
+        assertEquals(SceDeviceHealth.UNRESPONSIVE, circuitBreaker.getHealth(TOKEN));
+    }
+
+    @Test
+    public void testConsecutiveFailuresOpenCircuit() throws Exception {
+        openCircuit();
+
+        // Short-circuited commands fail and queries throw, without making a transaction
+        long transactionCount = transport.getTransactionCount();
+        device.failing = false;
+        assertFalse(circuitBreaker.rumble(TOKEN, 1, 1));
+        try {
+            circuitBreaker.getNickname(TOKEN);
+            fail();
+        } catch (ControllerUnresponsiveException e) {
+            // This may be thrown every frame, so it's shared and has no stack trace
+            assertSame(ControllerUnresponsiveException.INSTANCE, e);
+            assertEquals(0, e.getStackTrace().length);
+        }
+        assertEquals(transactionCount, transport.getTransactionCount());
+    }
+
+    @Test
+    public void testSuccessResetsStrikes() throws Exception {
+        device.failing = true;
+        assertFalse(circuitBreaker.rumble(TOKEN, 1, 1));
+        assertEquals(SceDeviceHealth.DEGRADED, circuitBreaker.getHealth(TOKEN));
+
+        device.failing = false;
+        assertTrue(circuitBreaker.rumble(TOKEN, 1, 1));
+        assertEquals(SceDeviceHealth.HEALTHY, circuitBreaker.getHealth(TOKEN));
+
+        device.failing = true;
+        for (int i = 0; i < CircuitBreakerSceTransport.FAILURE_THRESHOLD - 1; i++) {
+            assertFalse(circuitBreaker.rumble(TOKEN, 1, 1));
+        }
+        assertEquals(SceDeviceHealth.DEGRADED, circuitBreaker.getHealth(TOKEN));
+    }
+
+    @Test
+    public void testMissingInputDeviceIdIsNotAFailure() throws Exception {
+        device.inputDeviceId = -1;
+        for (int i = 0; i < CircuitBreakerSceTransport.FAILURE_THRESHOLD; i++) {
+            assertEquals(-1, circuitBreaker.getInputDeviceId(TOKEN));
+        }
+        assertEquals(SceDeviceHealth.HEALTHY, circuitBreaker.getHealth(TOKEN));
+    }
+
+    @Test
+    public void testProbeBacksOffAndClosesCircuit() throws Exception {
+        openCircuit();
+
+        assertTrue(probeScheduler.advanceToNextTask());
+        assertEquals(CircuitBreakerSceTransport.INITIAL_PROBE_DELAY_MS, probeScheduler.uptimeMillis());
+        assertEquals(SceDeviceHealth.UNRESPONSIVE, circuitBreaker.getHealth(TOKEN));
+
+        assertTrue(probeScheduler.advanceToNextTask());
+        assertEquals(3 * CircuitBreakerSceTransport.INITIAL_PROBE_DELAY_MS, probeScheduler.uptimeMillis());
+
+        device.failing = false;
+        assertTrue(probeScheduler.advanceToNextTask());
+        assertEquals(SceDeviceHealth.HEALTHY, circuitBreaker.getHealth(TOKEN));
+        assertTrue(circuitBreaker.rumble(TOKEN, 1, 1));
+        assertFalse(probeScheduler.advanceToNextTask());
+    }
+
+    @Test
+    public void testConnectionStateChangeClosesCircuit() throws Exception {
+        circuitBreaker.registerListener(new SceTransport.Listener() {
+            @Override
+            public void onDeviceAdded(String controllerToken) {
+            }
+
+            @Override
+            public void onDeviceChanged(String controllerToken, int changeType) {
+            }
+
+            @Override
+            public void onDeviceRemoved(String controllerToken) {
+            }
+        });
+        openCircuit();
+
+        transport.changeDevice(TOKEN, 4);
+        assertEquals(SceDeviceHealth.HEALTHY, circuitBreaker.getHealth(TOKEN));
+    }
+
+    @Test
+    public void testCloseStopsProbing() throws Exception {
+        openCircuit();
+        long transactionCount = transport.getTransactionCount();
+
+        circuitBreaker.close();
+        while (probeScheduler.advanceToNextTask());
+        assertEquals(transactionCount, transport.getTransactionCount());
+    }
+
+    @Test
+    public void testOverlappingFastCallsKeepCircuitClosed() throws Exception {
+        // Two threads keep a transaction in flight at all times for longer than the
+        // threshold, but each transaction completes well within it
+        transport.setLatencyNanos(TimeUnit.MILLISECONDS.toNanos(20));
+        final long endTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(4 * CircuitBreakerSceTransport.SLOW_TRANSACTION_THRESHOLD_MS);
+        final AtomicBoolean failed = new AtomicBoolean();
+
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        while (System.nanoTime() < endTime) {
+                            if (!circuitBreaker.rumble(TOKEN, 1, 1)) {
+                                failed.set(true);
+                            }
+                        }
+                    } catch (RemoteException e) {
+                        failed.set(true);
+                    }
+                }
+            };
+            threads[i].start();
+            Thread.sleep(10);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertFalse(failed.get());
+        assertEquals(SceDeviceHealth.HEALTHY, circuitBreaker.getHealth(TOKEN));
+    }
+
+    @Test
+    public void testStuckCallOpensCircuit() throws Exception {
+        final CountDownLatch unblock = new CountDownLatch(1);
+        circuitBreaker = new CircuitBreakerSceTransport(new FakeSceTransport() {
+            @Override
+            public boolean identify(String controllerToken) {
+                try {
+                    unblock.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return true;
+            }
+        }, probeScheduler, new StatsCollector());
+
+        Thread stuckThread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    circuitBreaker.identify(TOKEN);
+                } catch (RemoteException e) {
+                    e.printStackTrace();
+                }
+            }
+        };
+        stuckThread.start();
+
+        try {
+            Thread.sleep(2 * CircuitBreakerSceTransport.SLOW_TRANSACTION_THRESHOLD_MS);
+            assertEquals(SceDeviceHealth.UNRESPONSIVE, circuitBreaker.getHealth(TOKEN));
+
+            // Other callers don't queue up behind the stuck call
+            assertFalse(circuitBreaker.identify(TOKEN));
+        } finally {
+            unblock.countDown();
+            stuckThread.join();
+        }
+    }
+}
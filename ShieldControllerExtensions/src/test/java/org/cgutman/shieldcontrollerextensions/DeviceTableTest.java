@@ -0,0 +1,112 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeviceTableTest {
+    private DeviceTable deviceTable;
+
+    @Before
+    public void setupDeviceTable() {
+        deviceTable = new DeviceTable();
+    }
+
+    @Test
+    public void testEmpty() {
+        assertNull(deviceTable.getToken(1));
+        assertEquals(-1, deviceTable.getDeviceId("a"));
+        assertEquals(0, deviceTable.getSnapshot().size());
+        assertEquals(-1, deviceTable.remove("a"));
+    }
+
+    @Test
+    public void testBothDirections() {
+        deviceTable.put("a", 5);
+        deviceTable.put("b", 6);
+
+        assertEquals("a", deviceTable.getToken(5));
+        assertEquals("b", deviceTable.getToken(6));
+        assertEquals(5, deviceTable.getDeviceId("a"));
+        assertEquals(6, deviceTable.getDeviceId("b"));
+        assertNull(deviceTable.getToken(7));
+    }
+
+    @Test
+    public void testManyDevices() {
+        // Enough devices to grow the table and make probe sequences collide
+        for (int i = 0; i < 1000; i++) {
+            deviceTable.put("token" + i, i * 16);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("token" + i, deviceTable.getToken(i * 16));
+            assertEquals(i * 16, deviceTable.getDeviceId("token" + i));
+            assertNull(deviceTable.getToken(i * 16 + 1));
+        }
+    }
+
+    @Test
+    public void testRemoval() {
+        for (int i = 0; i < 100; i++) {
+            deviceTable.put("token" + i, i);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            assertEquals(i, deviceTable.remove("token" + i));
+        }
+
+        // Removed devices are gone, and the rest are still found past the removed slots
+        assertEquals(50, deviceTable.getSnapshot().size());
+        for (int i = 0; i < 100; i++) {
+            if (i % 2 == 0) {
+                assertNull(deviceTable.getToken(i));
+                assertEquals(-1, deviceTable.getDeviceId("token" + i));
+            }
+            else {
+                assertEquals("token" + i, deviceTable.getToken(i));
+                assertEquals(i, deviceTable.getDeviceId("token" + i));
+            }
+        }
+
+        deviceTable.clear();
+        assertEquals(0, deviceTable.getSnapshot().size());
+        assertNull(deviceTable.getToken(1));
+    }
+
+    @Test
+    public void testRemapToken() {
+        deviceTable.put("a", 5);
+        deviceTable.put("a", 6);
+
+        assertNull(deviceTable.getToken(5));
+        assertEquals("a", deviceTable.getToken(6));
+        assertEquals(6, deviceTable.getDeviceId("a"));
+        assertEquals(1, deviceTable.getSnapshot().size());
+    }
+
+    @Test
+    public void testReuseDeviceId() {
+        deviceTable.put("a", 5);
+        deviceTable.put("b", 5);
+
+        assertEquals("b", deviceTable.getToken(5));
+        assertEquals(-1, deviceTable.getDeviceId("a"));
+        assertEquals(1, deviceTable.getSnapshot().size());
+    }
+
+    @Test
+    public void testSnapshotIsImmutable() {
+        deviceTable.put("a", 5);
+        DeviceTable.Snapshot snapshot = deviceTable.getSnapshot();
+
+        deviceTable.remove("a");
+        deviceTable.put("b", 6);
+
+        assertEquals(1, snapshot.size());
+        assertEquals("a", snapshot.getTokenAt(0));
+        assertEquals(5, snapshot.getDeviceIdAt(0));
+        assertEquals("a", snapshot.getToken(5));
+        assertNull(snapshot.getToken(6));
+    }
+}
@@ -0,0 +1,392 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import android.os.RemoteException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+public class EventDispatcherTest {
+    private static final String TOKEN = "controller";
+
+    private ManualTaskScheduler worker;
+    private FakeSceTransport transport;
+    private DeviceTable deviceTable;
+    private ConcurrentHashMap<String, DeviceProperties> devicePropertiesMap;
+    private EventDispatcher eventDispatcher;
+
+    // Listener callbacks in the order they were delivered
+    private final ArrayList<String> events = new ArrayList<>();
+
+    // Set to run something in the middle of the next battery state transaction
+    private Runnable batteryStateHook;
+
+    @Before
+    public void setupEventDispatcher() throws RemoteException {
+        worker = new ManualTaskScheduler();
+        transport = new FakeSceTransport() {
+            @Override
+            public String getBatteryState(String controllerToken) throws RemoteException {
+                String batteryState = super.getBatteryState(controllerToken);
+                Runnable hook = batteryStateHook;
+                batteryStateHook = null;
+                if (hook != null) {
+                    hook.run();
+                }
+                return batteryState;
+            }
+        };
+        deviceTable = new DeviceTable();
+        devicePropertiesMap = new ConcurrentHashMap<>();
+
+        EventJournal journal = new EventJournal();
+        RumbleEngine rumbleEngine = new RumbleEngine(worker, journal);
+        rumbleEngine.setTransport(transport);
+        eventDispatcher = new EventDispatcher(worker, deviceTable, devicePropertiesMap,
+                rumbleEngine, new StatsCollector(), journal);
+        eventDispatcher.setTransport(transport);
+
+        // Deliver callbacks right away so the tests can check them after advancing the worker
+        eventDispatcher.addListener(new SceManager.SceDeviceListener() {
+            @Override
+            public void onDeviceAdded(int inputDeviceId) {
+                events.add("added " + inputDeviceId);
+            }
+
+            @Override
+            public void onDeviceRemoved(int inputDeviceId) {
+                events.add("removed " + inputDeviceId);
+            }
+
+            @Override
+            public void onBatteryPercentageChanged(int inputDeviceId, int newBatteryPercentage) {
+                events.add("battery " + inputDeviceId + " " + newBatteryPercentage);
+            }
+
+            @Override
+            public void onChargingStateChanged(int inputDeviceId, SceChargingState newChargingState) {
+                events.add("charging " + inputDeviceId + " " + newChargingState);
+            }
+
+            @Override
+            public void onInputDeviceIdChanged(int oldInputDeviceId, int newInputDeviceId) {
+                events.add("remapped " + oldInputDeviceId + " " + newInputDeviceId);
+            }
+        }, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+    }
+
+    private void register() throws RemoteException {
+        eventDispatcher.register(transport);
+        while (worker.advanceToNextTask());
+    }
+
+    private FakeSceTransport.FakeDevice addDevice() throws RemoteException {
+        register();
+        FakeSceTransport.FakeDevice device = transport.addDevice(TOKEN, 5);
+        worker.advanceBy(0);
+        events.clear();
+        return device;
+    }
+
+    @Test
+    public void testInitialDevices() throws Exception {
+        transport.addDevice("a", 5);
+        transport.addDevice("b", 6);
+        register();
+
+        assertTrue(eventDispatcher.awaitReady(0));
+        assertEquals("a", deviceTable.getToken(5));
+        assertEquals("b", deviceTable.getToken(6));
+        assertNotNull(devicePropertiesMap.get("a"));
+        assertNotNull(devicePropertiesMap.get("b"));
+        assertTrue(events.contains("added 5"));
+        assertTrue(events.contains("added 6"));
+        assertEquals(2, events.size());
+    }
+
+    @Test
+    public void testFailedRegistrationDoesNotHoldLaterDevices() throws Exception {
+        transport.failNextTransactions(1);
+        try {
+            eventDispatcher.register(transport);
+            fail();
+        } catch (RemoteException expected) {
+        }
+        while (worker.advanceToNextTask());
+
+        // Reports that arrive later aren't left waiting for a batch that will never be processed
+        transport.addDevice(TOKEN, 5);
+        eventDispatcher.onDeviceAdded(TOKEN);
+        while (worker.advanceToNextTask());
+        assertEquals(5, deviceTable.getDeviceId(TOKEN));
+        assertEquals(1, events.size());
+        assertEquals("added 5", events.get(0));
+    }
+
+    @Test
+    public void testDeviceAddedAndRemoved() throws Exception {
+        register();
+
+        transport.addDevice(TOKEN, 5);
+        assertEquals(-1, deviceTable.getDeviceId(TOKEN));
+        worker.advanceBy(0);
+        assertEquals(5, deviceTable.getDeviceId(TOKEN));
+        assertNotNull(devicePropertiesMap.get(TOKEN));
+
+        transport.removeDevice(TOKEN);
+        worker.advanceBy(0);
+        assertEquals(-1, deviceTable.getDeviceId(TOKEN));
+        assertNull(devicePropertiesMap.get(TOKEN));
+
+        assertEquals(2, events.size());
+        assertEquals("added 5", events.get(0));
+        assertEquals("removed 5", events.get(1));
+    }
+
+    @Test
+    public void testAddedDeviceIsMappedBeforePropertiesAreFetched() throws Exception {
+        register();
+
+        final ArrayList<String> eventsDuringFetch = new ArrayList<>();
+        batteryStateHook = new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(5, deviceTable.getDeviceId(TOKEN));
+                assertNull(devicePropertiesMap.get(TOKEN));
+                eventsDuringFetch.addAll(events);
+            }
+        };
+        transport.addDevice(TOKEN, 5);
+        worker.advanceBy(0);
+
+        assertEquals(1, eventsDuringFetch.size());
+        assertEquals("added 5", eventsDuringFetch.get(0));
+        assertNotNull(devicePropertiesMap.get(TOKEN));
+    }
+
+    @Test
+    public void testResetDuringFetchDiscardsProperties() throws Exception {
+        register();
+
+        batteryStateHook = new Runnable() {
+            @Override
+            public void run() {
+                eventDispatcher.reset(false);
+            }
+        };
+        transport.addDevice(TOKEN, 5);
+        worker.advanceBy(0);
+
+        assertEquals(-1, deviceTable.getDeviceId(TOKEN));
+        assertNull(devicePropertiesMap.get(TOKEN));
+    }
+
+    @Test
+    public void testChangesAreCoalesced() throws Exception {
+        FakeSceTransport.FakeDevice device = addDevice();
+        long transactionCount = transport.getTransactionCount();
+
+        device.batteryPercentage = 90;
+        transport.changeDevice(TOKEN, 2);
+        device.batteryPercentage = 80;
+        transport.changeDevice(TOKEN, 2);
+        device.chargingState = SceChargingState.CHARGING;
+        transport.changeDevice(TOKEN, 3);
+
+        worker.advanceBy(EventDispatcher.DEFAULT_COALESCING_WINDOW_MS - 1);
+        assertTrue(events.isEmpty());
+
+        // Each changed property is fetched and delivered once, with its final value
+        worker.advanceBy(1);
+        assertEquals(2, transport.getTransactionCount() - transactionCount);
+        assertEquals(2, events.size());
+        assertEquals("battery 5 80", events.get(0));
+        assertEquals("charging 5 " + SceChargingState.CHARGING, events.get(1));
+        assertEquals(80, devicePropertiesMap.get(TOKEN).batteryPercentage);
+    }
+
+    @Test
+    public void testUnchangedValueNotDelivered() throws Exception {
+        addDevice();
+
+        transport.changeDevice(TOKEN, 2);
+        worker.advanceBy(EventDispatcher.DEFAULT_COALESCING_WINDOW_MS);
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void testInputDeviceIdChangeIsImmediate() throws Exception {
+        FakeSceTransport.FakeDevice device = addDevice();
+
+        device.batteryPercentage = 50;
+        transport.changeDevice(TOKEN, 2);
+        device.inputDeviceId = 7;
+        transport.changeDevice(TOKEN, 7);
+
+        worker.advanceBy(0);
+        assertEquals(7, deviceTable.getDeviceId(TOKEN));
+        assertNull(deviceTable.getToken(5));
+        assertEquals(1, events.size());
+        assertEquals("remapped 5 7", events.get(0));
+
+        // Changes still being coalesced are reported with the new ID
+        worker.advanceBy(EventDispatcher.DEFAULT_COALESCING_WINDOW_MS);
+        assertEquals(2, events.size());
+        assertEquals("battery 7 50", events.get(1));
+    }
+
+    @Test
+    public void testLosingInputDeviceIdRemovesDevice() throws Exception {
+        FakeSceTransport.FakeDevice device = addDevice();
+
+        device.inputDeviceId = -1;
+        transport.changeDevice(TOKEN, 7);
+        worker.advanceBy(0);
+        assertEquals(-1, deviceTable.getDeviceId(TOKEN));
+        assertEquals(1, events.size());
+        assertEquals("removed 5", events.get(0));
+    }
+
+    @Test
+    public void testResetDiscardsQueuedEvents() throws Exception {
+        FakeSceTransport.FakeDevice device = addDevice();
+
+        device.batteryPercentage = 50;
+        transport.changeDevice(TOKEN, 2);
+        transport.addDevice("other", 6);
+        eventDispatcher.reset(false);
+
+        worker.advanceBy(EventDispatcher.DEFAULT_COALESCING_WINDOW_MS);
+        assertTrue(events.isEmpty());
+        assertEquals(0, deviceTable.getSnapshot().size());
+        assertTrue(devicePropertiesMap.isEmpty());
+    }
+
+    @Test
+    public void testResetDuringTransactionDiscardsResult() throws Exception {
+        FakeSceTransport.FakeDevice device = addDevice();
+
+        // The device is reset while its battery state is being fetched, then added back
+        batteryStateHook = new Runnable() {
+            @Override
+            public void run() {
+                eventDispatcher.reset(false);
+                transport.changeDevice(TOKEN, 7);
+            }
+        };
+        device.batteryPercentage = 50;
+        transport.changeDevice(TOKEN, 2);
+        worker.advanceBy(EventDispatcher.DEFAULT_COALESCING_WINDOW_MS);
+
+        // Only the events processed after the reset are delivered
+        assertEquals(1, events.size());
+        assertEquals("added 5", events.get(0));
+        assertEquals(5, deviceTable.getDeviceId(TOKEN));
+        assertEquals(50, devicePropertiesMap.get(TOKEN).batteryPercentage);
+    }
+
+    @Test
+    public void testFailedChangeDoesNotDropOthers() throws Exception {
+        FakeSceTransport.FakeDevice device = addDevice();
+
+        device.batteryPercentage = 50;
+        transport.changeDevice(TOKEN, 2);
+        device.chargingState = SceChargingState.CHARGING;
+        transport.changeDevice(TOKEN, 3);
+
+        transport.failNextTransactions(1);
+        worker.advanceBy(EventDispatcher.DEFAULT_COALESCING_WINDOW_MS);
+        assertEquals(1, events.size());
+        assertEquals("charging 5 " + SceChargingState.CHARGING, events.get(0));
+    }
+
+    @Test
+    public void testControllerHandleTracksProperties() throws Exception {
+        addDevice();
+        SceController controller = eventDispatcher.getController(TOKEN, null);
+        assertNotNull(controller);
+        assertSame(controller, eventDispatcher.getController(TOKEN, null));
+        assertSame(devicePropertiesMap.get(TOKEN), controller.getProperties());
+
+        // The properties are replaced if the device is reported as added again
+        DeviceProperties oldProperties = controller.getProperties();
+        eventDispatcher.onDeviceAdded(TOKEN);
+        worker.advanceBy(0);
+        assertNotSame(oldProperties, controller.getProperties());
+        assertSame(devicePropertiesMap.get(TOKEN), controller.getProperties());
+
+        transport.removeDevice(TOKEN);
+        worker.advanceBy(0);
+        assertFalse(controller.isValid());
+        assertNull(controller.getProperties());
+        assertNull(eventDispatcher.getController(TOKEN, null));
+    }
+
+    @Test
+    public void testControllerHandleGetsPropertiesCachedAfterIt() throws Exception {
+        transport.addDevice(TOKEN, 5);
+
+        // Initial devices are mapped before their properties are fetched, so a handle can
+        // be obtained in between
+        final SceController[] controller = new SceController[1];
+        batteryStateHook = new Runnable() {
+            @Override
+            public void run() {
+                controller[0] = eventDispatcher.getController(TOKEN, null);
+            }
+        };
+        register();
+
+        assertNotNull(controller[0]);
+        assertTrue(controller[0].isValid());
+        assertNotNull(controller[0].getProperties());
+        assertSame(devicePropertiesMap.get(TOKEN), controller[0].getProperties());
+    }
+
+    @Test
+    public void testReconnectRemovesAndAddsBackDevices() throws Exception {
+        addDevice();
+        assertTrue(eventDispatcher.awaitReady(0));
+
+        // Listeners see the device removed when the service is lost
+        eventDispatcher.setTransport(null);
+        eventDispatcher.resetForReconnect(false);
+        assertEquals(1, events.size());
+        assertEquals("removed 5", events.get(0));
+        assertEquals(-1, deviceTable.getDeviceId(TOKEN));
+        assertFalse(eventDispatcher.awaitReady(0));
+
+        // And added back through the registration batch once it returns
+        FakeSceTransport newTransport = new FakeSceTransport();
+        newTransport.addDevice(TOKEN, 5);
+        eventDispatcher.setTransport(newTransport);
+        eventDispatcher.register(newTransport);
+        while (worker.advanceToNextTask());
+        assertTrue(eventDispatcher.awaitReady(0));
+        assertEquals(2, events.size());
+        assertEquals("added 5", events.get(1));
+        assertNotNull(devicePropertiesMap.get(TOKEN));
+    }
+
+    @Test
+    public void testEventsFromLostServiceAreDiscarded() throws Exception {
+        addDevice();
+
+        // An event queued before the service was lost isn't processed after reconnecting
+        transport.changeDevice(TOKEN, 2);
+        eventDispatcher.resetForReconnect(false);
+        events.clear();
+        worker.advanceBy(EventDispatcher.DEFAULT_COALESCING_WINDOW_MS);
+        assertTrue(events.isEmpty());
+    }
+}
@@ -0,0 +1,123 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class EventJournalTest {
+    private static final Pattern RUMBLE_LINE = Pattern.compile(".* RUMBLE (\\S+) args=(-?\\d+),(-?\\d+) result=success");
+
+    private static String[] dump(EventJournal journal) {
+        StringWriter output = new StringWriter();
+        journal.dump(new PrintWriter(output));
+        String text = output.toString().trim();
+        return text.isEmpty() ? new String[0] : text.split("\n");
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        EventJournal journal = new EventJournal();
+        assertFalse(journal.isEnabled());
+        journal.record(EventJournal.EVENT_DEVICE_ADDED, "controller");
+
+        String[] lines = dump(journal);
+        assertEquals(1, lines.length);
+        assertEquals("Event journal is disabled", lines[0]);
+    }
+
+    @Test
+    public void testRecordFields() {
+        EventJournal journal = new EventJournal();
+        journal.setCapacity(8);
+        journal.record(EventJournal.DEVICE_REMAPPED, "controller", 5, -1, EventJournal.RESULT_NONE);
+        journal.record(EventJournal.RUMBLE, "other", 65535, 0, EventJournal.RESULT_FAILURE);
+        journal.record(EventJournal.DEVICE_STATE_RESET, null);
+
+        String[] lines = dump(journal);
+        assertEquals(3, lines.length);
+        assertTrue(lines[0], lines[0].endsWith(" DEVICE_REMAPPED controller args=5,-1"));
+        assertTrue(lines[1], lines[1].endsWith(" RUMBLE other args=65535,0 result=failure"));
+        assertTrue(lines[2], lines[2].endsWith(" DEVICE_STATE_RESET args=0,0"));
+    }
+
+    @Test
+    public void testOldestRecordsAreOverwritten() {
+        EventJournal journal = new EventJournal();
+        journal.setCapacity(4);
+        for (int i = 0; i < 10; i++) {
+            journal.record(EventJournal.RUMBLE, "controller", i, i, EventJournal.RESULT_SUCCESS);
+        }
+
+        // Only the newest records are kept, from oldest to newest
+        String[] lines = dump(journal);
+        assertEquals(4, lines.length);
+        for (int i = 0; i < lines.length; i++) {
+            Matcher matcher = RUMBLE_LINE.matcher(lines[i]);
+            assertTrue(lines[i], matcher.matches());
+            assertEquals(6 + i, Integer.parseInt(matcher.group(2)));
+        }
+    }
+
+    @Test
+    public void testSetCapacityDiscardsRecords() {
+        EventJournal journal = new EventJournal();
+        journal.setCapacity(4);
+        journal.record(EventJournal.EVENT_DEVICE_ADDED, "controller");
+
+        journal.setCapacity(4);
+        assertEquals(0, dump(journal).length);
+
+        journal.setCapacity(0);
+        assertFalse(journal.isEnabled());
+    }
+
+    @Test
+    public void testConcurrentWritesAreNeverReadTorn() throws Exception {
+        final EventJournal journal = new EventJournal();
+        journal.setCapacity(16);
+        final AtomicBoolean done = new AtomicBoolean();
+
+        // Each writer records its own token with both args equal, so a record mixing the
+        // words of two writes shows up as a mismatch
+        Thread[] writers = new Thread[4];
+        for (int i = 0; i < writers.length; i++) {
+            final String controllerToken = "writer" + i;
+            final int writerIndex = i;
+            writers[i] = new Thread() {
+                @Override
+                public void run() {
+                    int value = writerIndex;
+                    while (!done.get()) {
+                        journal.record(EventJournal.RUMBLE, controllerToken, value, value, EventJournal.RESULT_SUCCESS);
+                        value += writers.length;
+                    }
+                }
+            };
+            writers[i].start();
+        }
+
+        try {
+            long endTime = System.nanoTime() + 200 * 1000000L;
+            while (System.nanoTime() < endTime) {
+                for (String line : dump(journal)) {
+                    Matcher matcher = RUMBLE_LINE.matcher(line);
+                    assertTrue(line, matcher.matches());
+                    int arg0 = Integer.parseInt(matcher.group(2));
+                    assertEquals(line, arg0, Integer.parseInt(matcher.group(3)));
+                    assertEquals(line, "writer" + (arg0 % writers.length), matcher.group(1));
+                }
+            }
+        } finally {
+            done.set(true);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ExecutorTaskSchedulerTest {
+    @Test
+    public void testTasksRunUntilShutdown() throws Exception {
+        ExecutorTaskScheduler scheduler = ExecutorTaskScheduler.createDefault("Test");
+
+        final CountDownLatch ran = new CountDownLatch(2);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                ran.countDown();
+            }
+        };
+        scheduler.post(task);
+        scheduler.postDelayed(task, 1);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+
+        // A delayed task that hasn't run yet is dropped, as are tasks posted afterwards
+        final AtomicBoolean ranAfterShutdown = new AtomicBoolean();
+        Runnable lateTask = new Runnable() {
+            @Override
+            public void run() {
+                ranAfterShutdown.set(true);
+            }
+        };
+        scheduler.postDelayed(lateTask, 50);
+        scheduler.shutdown();
+        scheduler.post(lateTask);
+        scheduler.postDelayed(lateTask, 0);
+
+        Thread.sleep(100);
+        assertFalse(ranAfterShutdown.get());
+    }
+}
@@ -0,0 +1,88 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import android.os.RemoteException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class InstrumentedSceTransportTest {
+    private static final String TOKEN = "controller";
+
+    private FakeSceTransport transport;
+    private FakeSceTransport.FakeDevice device;
+    private StatsCollector stats;
+    private InstrumentedSceTransport instrumentedTransport;
+
+    @Before
+    public void setupTransport() {
+        transport = new FakeSceTransport();
+        device = transport.addDevice(TOKEN, 1);
+        stats = new StatsCollector();
+        instrumentedTransport = new InstrumentedSceTransport(transport, stats);
+    }
+
+    private SceStats getStats() {
+        return new SceStats(stats, 0);
+    }
+
+    @Test
+    public void testTransactionsAreCounted() throws Exception {
+        instrumentedTransport.getNickname(TOKEN);
+        instrumentedTransport.getNickname(TOKEN);
+        instrumentedTransport.rumble(TOKEN, 1, 1);
+
+        SceStats snapshot = getStats();
+        assertEquals(2, snapshot.getTransactionCount(SceTransaction.GET_NICKNAME));
+        assertEquals(1, snapshot.getTransactionCount(SceTransaction.RUMBLE));
+        assertEquals(0, snapshot.getTransactionCount(SceTransaction.GET_CATEGORY));
+        assertEquals(0, snapshot.getTransactionFailureCount(SceTransaction.GET_NICKNAME));
+    }
+
+    @Test
+    public void testLatencyIsRecorded() throws Exception {
+        transport.setLatencyNanos(2 * 1000 * 1000);
+        instrumentedTransport.identify(TOKEN);
+
+        SceLatencyStats latency = getStats().getTransactionLatency(SceTransaction.IDENTIFY);
+        assertEquals(1, latency.getCount());
+        assertTrue(latency.getTotalTimeNanos() >= 2 * 1000 * 1000);
+        assertTrue(latency.getPercentileMicros(100) > 2000);
+    }
+
+    @Test
+    public void testFailuresAreCounted() throws Exception {
+        // Commands that report failure count as failed, but queries only fail if they throw
+        device.failing = true;
+        assertFalse(instrumentedTransport.rumble(TOKEN, 1, 1));
+        instrumentedTransport.getNickname(TOKEN);
+
+        transport.failNextTransactions(1);
+        try {
+            instrumentedTransport.getNickname(TOKEN);
+            fail();
+        } catch (RemoteException expected) {
+        }
+
+        SceStats snapshot = getStats();
+        assertEquals(1, snapshot.getTransactionFailureCount(SceTransaction.RUMBLE));
+        assertEquals(1, snapshot.getTransactionFailureCount(SceTransaction.GET_NICKNAME));
+        assertEquals(2, snapshot.getTransactionCount(SceTransaction.GET_NICKNAME));
+    }
+
+    @Test
+    public void testShortCircuitsAreNotTransactions() throws Exception {
+        CircuitBreakerSceTransport circuitBreaker = new CircuitBreakerSceTransport(instrumentedTransport,
+                new ManualTaskScheduler(), stats);
+        device.failing = true;
+        for (int i = 0; i < CircuitBreakerSceTransport.FAILURE_THRESHOLD; i++) {
+            assertFalse(circuitBreaker.rumble(TOKEN, 1, 1));
+        }
+
+        assertFalse(circuitBreaker.rumble(TOKEN, 1, 1));
+        SceStats snapshot = getStats();
+        assertEquals(1, snapshot.getShortCircuitCount());
+        assertEquals(CircuitBreakerSceTransport.FAILURE_THRESHOLD, snapshot.getTransactionCount(SceTransaction.RUMBLE));
+    }
+}
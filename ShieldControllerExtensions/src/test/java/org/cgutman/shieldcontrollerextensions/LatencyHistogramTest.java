@@ -0,0 +1,69 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBucketBounds() {
+        assertEquals(0, LatencyHistogram.getBucketIndex(0));
+        assertEquals(1, LatencyHistogram.getBucketIndex(1));
+        assertEquals(2, LatencyHistogram.getBucketIndex(2));
+        assertEquals(2, LatencyHistogram.getBucketIndex(3));
+        assertEquals(3, LatencyHistogram.getBucketIndex(4));
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.getBucketIndex(Long.MAX_VALUE));
+
+        // Each sample is below the upper bound of its bucket and at or above the one before
+        for (long latencyUs = 1; latencyUs < 1000000; latencyUs = latencyUs * 3 + 1) {
+            int index = LatencyHistogram.getBucketIndex(latencyUs);
+            assertTrue(latencyUs < LatencyHistogram.getBucketUpperBoundUs(index));
+            assertTrue(latencyUs >= LatencyHistogram.getBucketUpperBoundUs(index - 1));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.getBucketUpperBoundUs(LatencyHistogram.BUCKET_COUNT - 1));
+    }
+
+    @Test
+    public void testEmptySnapshot() {
+        SceLatencyStats stats = new SceLatencyStats(new LatencyHistogram());
+        assertEquals(0, stats.getCount());
+        assertEquals(0, stats.getMeanMicros());
+        assertEquals(0, stats.getPercentileMicros(50));
+    }
+
+    @Test
+    public void testSnapshotPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(100 * 1000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(5000 * 1000);
+        }
+
+        SceLatencyStats stats = new SceLatencyStats(histogram);
+        assertEquals(100, stats.getCount());
+        assertEquals(90 * 100 * 1000L + 10 * 5000 * 1000L, stats.getTotalTimeNanos());
+        assertEquals(590, stats.getMeanMicros());
+
+        // Percentiles are reported as the upper bound of their bucket
+        assertEquals(128, stats.getPercentileMicros(50));
+        assertEquals(128, stats.getPercentileMicros(90));
+        assertEquals(8192, stats.getPercentileMicros(91));
+        assertEquals(8192, stats.getPercentileMicros(100));
+
+        assertEquals(90, stats.getBucketSampleCount(LatencyHistogram.getBucketIndex(100)));
+        assertEquals(10, stats.getBucketSampleCount(LatencyHistogram.getBucketIndex(5000)));
+    }
+
+    @Test
+    public void testSnapshotIsImmutable() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        SceLatencyStats stats = new SceLatencyStats(histogram);
+
+        histogram.record(1000);
+        assertEquals(1, stats.getCount());
+        assertEquals(2, new SceLatencyStats(histogram).getCount());
+    }
+}
@@ -0,0 +1,399 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+public class RumbleEngineTest {
+    private static final String TOKEN = "controller";
+
+    private ManualTaskScheduler scheduler;
+    private FakeSceTransport transport;
+    private FakeSceTransport.FakeDevice device;
+    private RumbleEngine rumbleEngine;
+
+    @Before
+    public void setupRumbleEngine() {
+        scheduler = new ManualTaskScheduler();
+        transport = new FakeSceTransport();
+        device = transport.addDevice(TOKEN, 1);
+        rumbleEngine = new RumbleEngine(scheduler, new EventJournal());
+        rumbleEngine.setTransport(transport);
+    }
+
+    // Advances the clock a millisecond at a time, so every tick runs when it's due
+    private void advanceGradually(long deltaMs) {
+        for (long i = 0; i < deltaMs; i++) {
+            scheduler.advanceBy(1);
+        }
+    }
+
+    private void assertPlaying(int lowFreqMotor, int highFreqMotor) {
+        assertEquals(lowFreqMotor, device.lowFreqMotor);
+        assertEquals(highFreqMotor, device.highFreqMotor);
+    }
+
+    @Test
+    public void testDuplicateRumbleIsDropped() throws Exception {
+        assertTrue(rumbleEngine.rumble(TOKEN, 1000, 2000));
+        assertTrue(rumbleEngine.rumble(TOKEN, 1000, 2000));
+        assertEquals(1, device.rumbleCount.get());
+        assertPlaying(1000, 2000);
+    }
+
+    @Test
+    public void testRateLimitSendsLatestHeldCommand() throws Exception {
+        rumbleEngine.setMaxRumblesPerSecond(10);
+
+        assertTrue(rumbleEngine.rumble(TOKEN, 100, 100));
+        assertTrue(rumbleEngine.rumble(TOKEN, 200, 200));
+        assertTrue(rumbleEngine.rumble(TOKEN, 300, 300));
+        assertEquals(1, device.rumbleCount.get());
+        assertPlaying(100, 100);
+
+        scheduler.advanceBy(99);
+        assertEquals(1, device.rumbleCount.get());
+
+        // Only the latest of the held commands is sent
+        scheduler.advanceBy(1);
+        assertEquals(2, device.rumbleCount.get());
+        assertPlaying(300, 300);
+    }
+
+    @Test
+    public void testRateLimitDisabled() throws Exception {
+        rumbleEngine.setMaxRumblesPerSecond(0);
+
+        assertTrue(rumbleEngine.rumble(TOKEN, 100, 100));
+        assertTrue(rumbleEngine.rumble(TOKEN, 200, 200));
+        assertEquals(2, device.rumbleCount.get());
+        assertPlaying(200, 200);
+    }
+
+    @Test
+    public void testKeepaliveUntilStopped() throws Exception {
+        assertTrue(rumbleEngine.rumble(TOKEN, 65535, 65535));
+        assertEquals(1, device.rumbleCount.get());
+
+        // The keepalive must reach the controller before the previous command expires
+        assertTrue(scheduler.advanceToNextTask());
+        assertEquals(2, device.rumbleCount.get());
+        assertTrue(scheduler.uptimeMillis() < RumbleEngine.RUMBLE_DURATION_MS);
+        assertEquals(1, rumbleEngine.getActiveCount());
+
+        assertTrue(scheduler.advanceToNextTask());
+        assertEquals(3, device.rumbleCount.get());
+
+        // The stop is held by the rate limit since a keepalive was just sent
+        assertTrue(rumbleEngine.rumble(TOKEN, 0, 0));
+        scheduler.advanceBy(1000 / RumbleEngine.DEFAULT_MAX_RUMBLES_PER_SECOND);
+        assertEquals(4, device.rumbleCount.get());
+        assertEquals(0, rumbleEngine.getActiveCount());
+
+        scheduler.advanceBy(10 * RumbleEngine.RUMBLE_DURATION_MS);
+        assertEquals(4, device.rumbleCount.get());
+        assertPlaying(0, 0);
+    }
+
+    @Test
+    public void testKeepaliveStopsOnFailure() throws Exception {
+        assertTrue(rumbleEngine.rumble(TOKEN, 65535, 65535));
+
+        device.failing = true;
+        assertTrue(scheduler.advanceToNextTask());
+        assertEquals(0, rumbleEngine.getActiveCount());
+        assertFalse(scheduler.advanceToNextTask());
+    }
+
+    @Test
+    public void testRumbleAsyncIsSentByTick() {
+        final ArrayList<Boolean> outcomes = new ArrayList<>();
+        SceManager.SceRumbleCallback callback = new SceManager.SceRumbleCallback() {
+            @Override
+            public void onRumbleComplete(boolean success) {
+                outcomes.add(success);
+            }
+        };
+
+        rumbleEngine.rumbleAsync(TOKEN, 1000, 1000, callback);
+        rumbleEngine.rumbleAsync(TOKEN, 2000, 2000, callback);
+        assertEquals(0, device.rumbleCount.get());
+        assertTrue(outcomes.isEmpty());
+
+        // Both callers are told the outcome of the command that was sent
+        scheduler.advanceBy(0);
+        assertEquals(1, device.rumbleCount.get());
+        assertPlaying(2000, 2000);
+        assertEquals(2, outcomes.size());
+        assertTrue(outcomes.get(0));
+        assertTrue(outcomes.get(1));
+    }
+
+    @Test
+    public void testMaxMix() throws Exception {
+        rumbleEngine.setMaxRumblesPerSecond(0);
+
+        rumbleEngine.rumble(TOKEN, "a", 0, 1000, 30000);
+        rumbleEngine.rumble(TOKEN, "b", 1, 20000, 5000);
+        assertPlaying(20000, 30000);
+
+        // Stopping a channel leaves the others playing
+        rumbleEngine.rumble(TOKEN, "b", 1, 0, 0);
+        assertPlaying(1000, 30000);
+    }
+
+    @Test
+    public void testSumMix() throws Exception {
+        rumbleEngine.setMaxRumblesPerSecond(0);
+        rumbleEngine.setMixMode(SceRumbleMixMode.SUM);
+
+        rumbleEngine.rumble(TOKEN, "a", 0, 1000, 30000);
+        rumbleEngine.rumble(TOKEN, "b", 1, 20000, 5000);
+        assertPlaying(21000, 35000);
+
+        // The sum is clamped to the motor range
+        rumbleEngine.rumble(TOKEN, "a", 0, 50000, 60000);
+        assertPlaying(65535, 65000);
+    }
+
+    @Test
+    public void testPriorityMix() throws Exception {
+        rumbleEngine.setMaxRumblesPerSecond(0);
+        rumbleEngine.setMixMode(SceRumbleMixMode.PRIORITY);
+
+        rumbleEngine.rumble(TOKEN, "b", 1, 20000, 5000);
+        rumbleEngine.rumble(TOKEN, "a", 0, 1000, 30000);
+        assertPlaying(20000, 5000);
+
+        // Ties go to the latest update
+        rumbleEngine.rumble(TOKEN, "c", 1, 3000, 3000);
+        assertPlaying(3000, 3000);
+
+        rumbleEngine.rumble(TOKEN, "c", 1, 0, 0);
+        rumbleEngine.rumble(TOKEN, "b", 1, 0, 0);
+        assertPlaying(1000, 30000);
+    }
+
+    @Test
+    public void testMixModeChangeIsApplied() throws Exception {
+        rumbleEngine.setMaxRumblesPerSecond(0);
+
+        rumbleEngine.rumble(TOKEN, "a", 0, 1000, 1000);
+        rumbleEngine.rumble(TOKEN, "b", 0, 2000, 2000);
+        assertPlaying(2000, 2000);
+
+        rumbleEngine.setMixMode(SceRumbleMixMode.SUM);
+        scheduler.advanceBy(0);
+        assertPlaying(3000, 3000);
+    }
+
+    @Test
+    public void testChannelUpdateWithoutMixChangeIsDropped() throws Exception {
+        rumbleEngine.setMaxRumblesPerSecond(0);
+
+        rumbleEngine.rumble(TOKEN, "a", 0, 30000, 30000);
+        rumbleEngine.rumble(TOKEN, "b", 0, 1000, 1000);
+        rumbleEngine.rumble(TOKEN, "b", 0, 2000, 2000);
+        assertEquals(1, device.rumbleCount.get());
+    }
+
+    @Test
+    public void testEffectIsSampledUntilItEnds() throws Exception {
+        SceHapticEffect effect = SceHapticEffect.createWaveform(new long[] {0, 100, 200},
+                new int[] {0, 60000, 60000}, new int[] {0, 30000, 30000});
+        rumbleEngine.playEffect(TOKEN, effect);
+
+        // The ramp is followed with a bounded number of commands
+        advanceGradually(100);
+        assertPlaying(60000, 30000);
+        long rampCount = device.rumbleCount.get();
+        assertTrue(rampCount >= 3);
+        assertTrue(rampCount <= 100 / (1000 / RumbleEngine.DEFAULT_MAX_RUMBLES_PER_SECOND) + 1);
+
+        // Nothing is sent while the amplitudes hold, and the motors stop when it ends
+        advanceGradually(99);
+        assertEquals(rampCount, device.rumbleCount.get());
+        advanceGradually(1);
+        assertPlaying(0, 0);
+        assertEquals(0, rumbleEngine.getActiveCount());
+        assertFalse(rumbleEngine.cancelEffect(TOKEN));
+    }
+
+    @Test
+    public void testLoopingEffectRepeatsUntilCanceled() throws Exception {
+        rumbleEngine.setMaxRumblesPerSecond(0);
+
+        // Square wave: on for 100 ms, off for 100 ms
+        SceHapticEffect effect = SceHapticEffect.createWaveform(new long[] {0, 99, 100, 199},
+                new int[] {40000, 40000, 0, 0}, new int[] {40000, 40000, 0, 0}).withLooping(true);
+        rumbleEngine.playEffect(TOKEN, effect);
+
+        for (int i = 0; i < 5; i++) {
+            advanceGradually(50);
+            assertPlaying(40000, 40000);
+            advanceGradually(100);
+            assertPlaying(0, 0);
+            advanceGradually(50);
+        }
+
+        assertTrue(rumbleEngine.cancelEffect(TOKEN));
+        scheduler.advanceBy(0);
+        assertPlaying(0, 0);
+        long count = device.rumbleCount.get();
+        scheduler.advanceBy(1000);
+        assertEquals(count, device.rumbleCount.get());
+        assertPlaying(0, 0);
+    }
+
+    @Test
+    public void testRumbleOnDefaultChannelReplacesEffect() throws Exception {
+        rumbleEngine.setMaxRumblesPerSecond(0);
+
+        rumbleEngine.playEffect(TOKEN, SceHapticEffect.createEnvelope(60000, 60000, 100, 0, 1.0f, 1000, 100));
+        scheduler.advanceBy(50);
+
+        assertTrue(rumbleEngine.rumble(TOKEN, 1000, 1000));
+        assertFalse(rumbleEngine.cancelEffect(TOKEN));
+        scheduler.advanceBy(200);
+        assertPlaying(1000, 1000);
+    }
+
+    @Test
+    public void testImpulseNeedsNoKeepaliveOrStop() throws Exception {
+        assertTrue(rumbleEngine.rumbleImpulse(TOKEN, 1000, 2000, 50));
+        assertEquals(1, device.rumbleCount.get());
+        assertPlaying(1000, 2000);
+        assertEquals(0, rumbleEngine.getActiveCount());
+
+        assertFalse(scheduler.advanceToNextTask());
+        assertEquals(1, device.rumbleCount.get());
+    }
+
+    @Test
+    public void testImpulseInterruptsRumbleUntilItEnds() throws Exception {
+        assertTrue(rumbleEngine.rumble(TOKEN, 30000, 30000));
+        advanceGradually(100);
+        assertEquals(1, device.rumbleCount.get());
+
+        assertTrue(rumbleEngine.rumbleImpulse(TOKEN, 60000, 60000, 200));
+        assertEquals(2, device.rumbleCount.get());
+        assertPlaying(60000, 60000);
+
+        // The interrupted rumble is resent when the impulse ends, and not before
+        advanceGradually(199);
+        assertEquals(2, device.rumbleCount.get());
+        advanceGradually(1);
+        assertEquals(3, device.rumbleCount.get());
+        assertPlaying(30000, 30000);
+        assertEquals(1, rumbleEngine.getActiveCount());
+    }
+
+    @Test
+    public void testMatchingRumbleAfterImpulseIsSent() throws Exception {
+        rumbleEngine.setMaxRumblesPerSecond(0);
+
+        assertTrue(rumbleEngine.rumble(TOKEN, 30000, 30000));
+        assertTrue(rumbleEngine.rumbleImpulse(TOKEN, 60000, 60000, 100));
+
+        // The controller isn't playing the earlier command anymore, so this isn't a duplicate
+        assertTrue(rumbleEngine.rumble(TOKEN, 30000, 30000));
+        scheduler.advanceBy(0);
+        assertEquals(3, device.rumbleCount.get());
+        assertPlaying(30000, 30000);
+    }
+
+    @Test
+    public void testFailedImpulse() throws Exception {
+        device.failing = true;
+        assertFalse(rumbleEngine.rumbleImpulse(TOKEN, 1000, 2000, 50));
+
+        rumbleEngine.setTransport(null);
+        assertFalse(rumbleEngine.rumbleImpulse(TOKEN, 1000, 2000, 50));
+    }
+
+    @Test
+    public void testGroupWaitsForWholeGroup() throws Exception {
+        FakeSceTransport.FakeDevice otherDevice = transport.addDevice("other", 2);
+        long minSendIntervalMs = 1000 / RumbleEngine.DEFAULT_MAX_RUMBLES_PER_SECOND;
+
+        assertTrue(rumbleEngine.rumble(TOKEN, 100, 100));
+        rumbleEngine.rumbleGroup(new String[] {TOKEN, "other"}, 5000, 5000);
+
+        // The other controller could be sent to now, but it's held for the rate-limited one
+        scheduler.advanceBy(minSendIntervalMs - 1);
+        assertEquals(0, otherDevice.rumbleCount.get());
+        assertEquals(1, device.rumbleCount.get());
+
+        scheduler.advanceBy(1);
+        assertEquals(1, otherDevice.rumbleCount.get());
+        assertEquals(2, device.rumbleCount.get());
+        assertPlaying(5000, 5000);
+        assertEquals(5000, otherDevice.lowFreqMotor);
+    }
+
+    @Test
+    public void testNearlyDueKeepalivesShareATick() throws Exception {
+        FakeSceTransport.FakeDevice otherDevice = transport.addDevice("other", 2);
+
+        // Controllers rumbled a few milliseconds apart are kept alive together
+        assertTrue(rumbleEngine.rumble(TOKEN, 5000, 5000));
+        scheduler.advanceBy(10);
+        assertTrue(rumbleEngine.rumble("other", 5000, 5000));
+
+        for (int i = 2; i <= 4; i++) {
+            assertTrue(scheduler.advanceToNextTask());
+            assertEquals(i, device.rumbleCount.get());
+            assertEquals(i, otherDevice.rumbleCount.get());
+        }
+    }
+
+    @Test
+    public void testGroupStopsEffects() throws Exception {
+        transport.addDevice("other", 2);
+        rumbleEngine.playEffect(TOKEN, SceHapticEffect.createEnvelope(60000, 60000, 100, 0, 1.0f, 1000, 100));
+
+        rumbleEngine.rumbleGroup(new String[] {TOKEN, "other"}, 0, 0);
+        assertFalse(rumbleEngine.cancelEffect(TOKEN));
+    }
+
+    @Test
+    public void testSuspendedRumbleResumesWhenDeviceReturns() throws Exception {
+        rumbleEngine.setMaxRumblesPerSecond(0);
+        rumbleEngine.rumble(TOKEN, "a", 0, 30000, 30000);
+        rumbleEngine.rumble(TOKEN, "b", 0, 1000, 1000);
+        assertEquals(1, device.rumbleCount.get());
+
+        // No keepalives are sent while the service is gone
+        rumbleEngine.suspend();
+        rumbleEngine.setTransport(null);
+        assertEquals(0, rumbleEngine.getActiveCount());
+        scheduler.advanceBy(10 * RumbleEngine.RUMBLE_DURATION_MS);
+        assertEquals(1, device.rumbleCount.get());
+
+        // The mix of the channels is restarted on the new transport
+        FakeSceTransport newTransport = new FakeSceTransport();
+        FakeSceTransport.FakeDevice newDevice = newTransport.addDevice(TOKEN, 1);
+        rumbleEngine.setTransport(newTransport);
+        rumbleEngine.resume(TOKEN);
+        scheduler.advanceBy(0);
+        assertEquals(1, newDevice.rumbleCount.get());
+        assertEquals(30000, newDevice.lowFreqMotor);
+        assertEquals(1, rumbleEngine.getActiveCount());
+    }
+
+    @Test
+    public void testSuspendDropsEffects() throws Exception {
+        rumbleEngine.playEffect(TOKEN, SceHapticEffect.createEnvelope(60000, 60000, 0, 0, 1.0f, 1000, 0));
+        scheduler.advanceBy(0);
+        assertPlaying(60000, 60000);
+
+        rumbleEngine.suspend();
+        rumbleEngine.resume(TOKEN);
+        scheduler.advanceBy(0);
+        assertEquals(1, device.rumbleCount.get());
+        assertFalse(rumbleEngine.cancelEffect(TOKEN));
+    }
+}
@@ -0,0 +1,106 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SceBatteryStateTest {
+    private SceBatteryState batteryState;
+
+    @Before
+    public void setupBatteryState() {
+        batteryState = new SceBatteryState();
+    }
+
+    @Test
+    public void testPercentageOnly() {
+        assertTrue(batteryState.parse("85"));
+        assertEquals(85, batteryState.getBatteryPercentage());
+        assertEquals(1, batteryState.getFieldCount());
+        assertFalse(batteryState.isFieldValid(1));
+        assertEquals(-1, batteryState.getField(1));
+    }
+
+    @Test
+    public void testMultipleFields() {
+        assertTrue(batteryState.parse("85;1; 2 ;x;-3;;+4"));
+        assertEquals(7, batteryState.getFieldCount());
+        assertEquals(85, batteryState.getField(0));
+        assertEquals(1, batteryState.getField(1));
+        assertEquals(2, batteryState.getField(2));
+        assertFalse(batteryState.isFieldValid(3));
+        assertEquals(-1, batteryState.getField(3));
+        assertTrue(batteryState.isFieldValid(4));
+        assertEquals(-3, batteryState.getField(4));
+        assertFalse(batteryState.isFieldValid(5));
+        assertEquals(4, batteryState.getField(6));
+    }
+
+    @Test
+    public void testInvalid() {
+        assertFalse(batteryState.parse(null));
+        assertEquals(-1, batteryState.getBatteryPercentage());
+        assertEquals(0, batteryState.getFieldCount());
+
+        assertFalse(batteryState.parse(""));
+        assertEquals(0, batteryState.getFieldCount());
+
+        // The other fields are still parsed if the percentage is invalid
+        assertFalse(batteryState.parse("abc;5"));
+        assertEquals(-1, batteryState.getBatteryPercentage());
+        assertEquals(5, batteryState.getField(1));
+    }
+
+    @Test
+    public void testIntRange() {
+        assertTrue(batteryState.parse("1;2147483647;-2147483648;2147483648;-2147483649"));
+        assertEquals(Integer.MAX_VALUE, batteryState.getField(1));
+        assertEquals(Integer.MIN_VALUE, batteryState.getField(2));
+        assertFalse(batteryState.isFieldValid(3));
+        assertFalse(batteryState.isFieldValid(4));
+    }
+
+    @Test
+    public void testExtraFieldsIgnored() {
+        StringBuilder builder = new StringBuilder("0");
+        for (int i = 1; i < SceBatteryState.MAX_FIELDS + 4; i++) {
+            builder.append(';').append(i);
+        }
+
+        assertTrue(batteryState.parse(builder.toString()));
+        assertEquals(SceBatteryState.MAX_FIELDS, batteryState.getFieldCount());
+        assertEquals(SceBatteryState.MAX_FIELDS - 1, batteryState.getField(SceBatteryState.MAX_FIELDS - 1));
+    }
+
+    @Test
+    public void testReuse() {
+        assertTrue(batteryState.parse("85;1;2"));
+        assertTrue(batteryState.parse("40"));
+        assertEquals(1, batteryState.getFieldCount());
+        assertEquals(40, batteryState.getBatteryPercentage());
+        assertEquals(-1, batteryState.getField(1));
+    }
+
+    @Test
+    public void testParseBatteryPercentage() {
+        assertEquals(42, SceBatteryState.parseBatteryPercentage("42;1;2"));
+        assertEquals(42, SceBatteryState.parseBatteryPercentage("42"));
+        assertEquals(-1, SceBatteryState.parseBatteryPercentage("x;1"));
+        assertEquals(-1, SceBatteryState.parseBatteryPercentage(null));
+    }
+
+    @Test
+    public void testCopyAndCompare() {
+        batteryState.parse("85;1;x");
+        SceBatteryState copy = new SceBatteryState();
+        copy.copyFrom(batteryState);
+        assertTrue(copy.contentEquals(batteryState));
+        assertFalse(copy.isFieldValid(2));
+
+        copy.parse("85;1;2");
+        assertFalse(copy.contentEquals(batteryState));
+        copy.parse("85;1");
+        assertFalse(copy.contentEquals(batteryState));
+    }
+}
@@ -0,0 +1,48 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SceControllerTest {
+    @Test(expected = IllegalArgumentException.class)
+    public void testRumbleRejectsNullChannel() {
+        new SceController(null, "controller").rumble(null, 0, 1000, 1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRumbleAsyncRejectsNullChannel() {
+        new SceController(null, "controller").rumbleAsync(null, 0, 1000, 1000, null);
+    }
+
+    @Test
+    public void testArgumentsAreCheckedOnInvalidHandle() {
+        // Bad arguments are reported whether or not the device is still present
+        SceController controller = new SceController(null, "controller");
+        controller.invalidate();
+        try {
+            controller.rumble(null, 0, 1000, 1000);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            controller.rumbleImpulse(1000, 1000, 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertFalse(controller.rumble("ui", 0, 1000, 1000));
+    }
+
+    @Test
+    public void testImpulseDurationIsChecked() {
+        SceManager.checkImpulseDuration(1);
+        SceManager.checkImpulseDuration(RumbleEngine.RUMBLE_DURATION_MS);
+
+        SceController controller = new SceController(null, "controller");
+        try {
+            controller.rumbleImpulse(1000, 1000, RumbleEngine.RUMBLE_DURATION_MS + 1);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
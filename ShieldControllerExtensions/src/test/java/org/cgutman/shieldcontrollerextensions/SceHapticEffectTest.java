@@ -0,0 +1,115 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SceHapticEffectTest {
+    private static SceHapticEffect createRampAndHold() {
+        // Ramps the low motor up and the high motor down over 100 ms, then holds for 100 ms
+        return SceHapticEffect.createWaveform(new long[] {0, 100, 200},
+                new int[] {0, 10000, 10000}, new int[] {20000, 0, 0});
+    }
+
+    @Test
+    public void testWaveformIsInterpolated() {
+        SceHapticEffect effect = createRampAndHold();
+        assertEquals(200, effect.getDurationMs());
+
+        assertEquals(0, effect.getLowFreqAmplitude(0));
+        assertEquals(20000, effect.getHighFreqAmplitude(0));
+        assertEquals(5000, effect.getLowFreqAmplitude(50));
+        assertEquals(10000, effect.getHighFreqAmplitude(50));
+        assertEquals(10000, effect.getLowFreqAmplitude(150));
+        assertEquals(0, effect.getHighFreqAmplitude(150));
+        assertEquals(10000, effect.getLowFreqAmplitude(199));
+    }
+
+    @Test
+    public void testSamplingFollowsSegments() {
+        SceHapticEffect effect = createRampAndHold();
+
+        // Ramps are sampled at the interval, but not past the end of the segment
+        assertEquals(16, effect.getNextSampleDelayMs(10, 16));
+        assertEquals(5, effect.getNextSampleDelayMs(95, 16));
+
+        // Nothing changes until a flat segment ends
+        assertEquals(80, effect.getNextSampleDelayMs(120, 16));
+    }
+
+    @Test
+    public void testSinglePointNeverNeedsSampling() {
+        SceHapticEffect effect = SceHapticEffect.createWaveform(new long[] {0}, new int[] {1000}, new int[] {2000});
+        assertEquals(0, effect.getDurationMs());
+        assertEquals(1000, effect.getLowFreqAmplitude(0));
+        assertEquals(2000, effect.getHighFreqAmplitude(0));
+        assertEquals(Long.MAX_VALUE, effect.getNextSampleDelayMs(0, 16));
+    }
+
+    @Test
+    public void testNonLoopingEffectEnds() {
+        SceHapticEffect effect = createRampAndHold();
+        assertFalse(effect.isLooping());
+        assertEquals(199, effect.getPositionMs(199));
+        assertEquals(-1, effect.getPositionMs(200));
+    }
+
+    @Test
+    public void testLoopingEffectWraps() {
+        SceHapticEffect effect = createRampAndHold();
+        SceHapticEffect loopingEffect = effect.withLooping(true);
+
+        // The original is unchanged
+        assertFalse(effect.isLooping());
+        assertTrue(loopingEffect.isLooping());
+
+        assertEquals(0, loopingEffect.getPositionMs(200));
+        assertEquals(50, loopingEffect.getPositionMs(450));
+        assertEquals(5000, loopingEffect.getLowFreqAmplitude(loopingEffect.getPositionMs(450)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEffectWithoutDurationCantLoop() {
+        SceHapticEffect.createWaveform(new long[] {0}, new int[] {1000}, new int[] {2000}).withLooping(true);
+    }
+
+    @Test
+    public void testEnvelope() {
+        SceHapticEffect effect = SceHapticEffect.createEnvelope(40000, 20000, 100, 100, 0.5f, 200, 100);
+        assertEquals(500, effect.getDurationMs());
+
+        assertEquals(0, effect.getLowFreqAmplitude(0));
+        assertEquals(40000, effect.getLowFreqAmplitude(100));
+        assertEquals(20000, effect.getHighFreqAmplitude(100));
+        assertEquals(20000, effect.getLowFreqAmplitude(300));
+        assertEquals(10000, effect.getHighFreqAmplitude(300));
+        assertEquals(10000, effect.getLowFreqAmplitude(450));
+    }
+
+    @Test
+    public void testEnvelopeWithoutAttackStartsAtPeak() {
+        SceHapticEffect effect = SceHapticEffect.createEnvelope(40000, 20000, 0, 0, 1.0f, 100, 0);
+        assertEquals(100, effect.getDurationMs());
+        assertEquals(40000, effect.getLowFreqAmplitude(0));
+        assertEquals(20000, effect.getHighFreqAmplitude(50));
+    }
+
+    @Test
+    public void testInvalidWaveforms() {
+        try {
+            SceHapticEffect.createWaveform(new long[] {10, 20}, new int[] {0, 0}, new int[] {0, 0});
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            SceHapticEffect.createWaveform(new long[] {0, 20, 20}, new int[] {0, 0, 0}, new int[] {0, 0, 0});
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            SceHapticEffect.createWaveform(new long[] {0, 20}, new int[] {0, 65536}, new int[] {0, 0});
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
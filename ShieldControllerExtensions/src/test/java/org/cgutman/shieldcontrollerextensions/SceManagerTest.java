@@ -0,0 +1,23 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SceManagerTest {
+    @Test
+    public void testReconnectDelayDoublesUpToMaximum() {
+        long delayMs = SceManager.INITIAL_RECONNECT_DELAY_MS;
+        long previousDelayMs;
+        int attempts = 0;
+        do {
+            previousDelayMs = delayMs;
+            delayMs = SceManager.getNextReconnectDelayMs(delayMs);
+            assertTrue(delayMs == 2 * previousDelayMs || delayMs == SceManager.MAX_RECONNECT_DELAY_MS);
+            attempts++;
+        } while (delayMs != previousDelayMs);
+
+        assertEquals(SceManager.MAX_RECONNECT_DELAY_MS, delayMs);
+        assertTrue(attempts < 10);
+    }
+}
@@ -0,0 +1,130 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+public class WarmStartCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setupFile() {
+        file = new File(folder.getRoot(), "warm_start");
+    }
+
+    private WarmStartCache load() {
+        WarmStartCache cache = new WarmStartCache(file);
+        cache.load();
+        return cache;
+    }
+
+    @Test
+    public void testRoundTrip() {
+        WarmStartCache cache = load();
+        cache.update("a", "descriptor-a", SceCategory.CONTROLLER, "Controller");
+        cache.update("b", "descriptor-b", SceCategory.REMOTE, null);
+
+        cache = load();
+        WarmStartCache.Entry entry = cache.getByDescriptor("descriptor-a");
+        assertNotNull(entry);
+        assertSame(entry, cache.getByToken("a"));
+        assertEquals(SceCategory.CONTROLLER, entry.category);
+        assertEquals("Controller", entry.nickname);
+
+        entry = cache.getByToken("b");
+        assertNotNull(entry);
+        assertEquals("descriptor-b", entry.descriptor);
+        assertEquals(SceCategory.REMOTE, entry.category);
+        assertNull(entry.nickname);
+    }
+
+    @Test
+    public void testRepairedTokenReplacesEntry() {
+        WarmStartCache cache = load();
+        cache.update("a", "descriptor-a", SceCategory.CONTROLLER, "Controller");
+        cache.update("b", "descriptor-a", SceCategory.CONTROLLER, "Controller");
+
+        cache = load();
+        assertNull(cache.getByToken("a"));
+        assertEquals("b", cache.getByDescriptor("descriptor-a").controllerToken);
+    }
+
+    @Test
+    public void testUnchangedEntryIsNotRewritten() {
+        WarmStartCache cache = load();
+        cache.update("a", "descriptor-a", SceCategory.CONTROLLER, "Controller");
+        assertTrue(file.setLastModified(0));
+
+        cache.update("a", "descriptor-a", SceCategory.CONTROLLER, "Controller");
+        assertEquals(0, file.lastModified());
+    }
+
+    @Test
+    public void testOldestEntriesAreEvicted() {
+        WarmStartCache cache = load();
+        for (int i = 0; i <= WarmStartCache.MAX_ENTRIES; i++) {
+            cache.update("token-" + i, "descriptor-" + i, SceCategory.CONTROLLER, null);
+        }
+
+        cache = load();
+        assertNull(cache.getByToken("token-0"));
+        for (int i = 1; i <= WarmStartCache.MAX_ENTRIES; i++) {
+            assertNotNull(cache.getByToken("token-" + i));
+        }
+    }
+
+    @Test
+    public void testTruncatedFileKeepsEntriesReadBeforeTheError() throws Exception {
+        WarmStartCache cache = load();
+        cache.update("a", "descriptor-a", SceCategory.CONTROLLER, "Controller");
+        cache.update("b", "descriptor-b", SceCategory.CONTROLLER, "Controller");
+
+        RandomAccessFile truncatedFile = new RandomAccessFile(file, "rw");
+        try {
+            truncatedFile.setLength(truncatedFile.length() - 1);
+        } finally {
+            truncatedFile.close();
+        }
+
+        cache = load();
+        assertNotNull(cache.getByToken("a"));
+        assertNull(cache.getByToken("b"));
+    }
+
+    @Test
+    public void testCorruptFileIsIgnored() throws Exception {
+        FileOutputStream output = new FileOutputStream(file);
+        try {
+            output.write(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 });
+        } finally {
+            output.close();
+        }
+
+        WarmStartCache cache = load();
+        assertNull(cache.getByToken("a"));
+
+        // The next update replaces the corrupt file
+        cache.update("a", "descriptor-a", SceCategory.CONTROLLER, null);
+        assertNotNull(load().getByToken("a"));
+    }
+
+    @Test
+    public void testDelete() {
+        WarmStartCache cache = load();
+        cache.update("a", "descriptor-a", SceCategory.CONTROLLER, null);
+
+        cache.delete();
+        assertNull(cache.getByToken("a"));
+        assertFalse(file.exists());
+    }
+}
@@ -99,7 +99,7 @@ public class MainActivity extends AppCompatActivity {
 
     @Override
     protected void onDestroy() {
-        sceManager.stop();
+        sceManager.release();
         super.onDestroy();
     }
 }
\ No newline at end of file
@@ -0,0 +1,11 @@
+package android.os;
+
+// Stand-in for the Android class, which is only available as a stub outside of Android
+public class RemoteException extends Exception {
+    public RemoteException() {
+    }
+
+    public RemoteException(String message) {
+        super(message);
+    }
+}
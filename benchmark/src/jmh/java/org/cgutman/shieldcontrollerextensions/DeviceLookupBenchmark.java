@@ -0,0 +1,47 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of the input device ID lookup done by isRecognizedDevice() and friends for each
+// input event. Run with the gc profiler (the default) to confirm it doesn't allocate.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DeviceLookupBenchmark {
+    @Param({"1", "4", "8"})
+    int deviceCount;
+
+    private DeviceTable deviceTable;
+    private int recognizedDeviceId;
+    private int unrecognizedDeviceId;
+
+    @Setup
+    public void setup() {
+        deviceTable = new DeviceTable();
+        for (int i = 0; i < deviceCount; i++) {
+            deviceTable.put("token" + i, 10 + i);
+        }
+
+        recognizedDeviceId = 10 + deviceCount - 1;
+        unrecognizedDeviceId = 5;
+    }
+
+    @Benchmark
+    public String lookupRecognized() {
+        return deviceTable.getToken(recognizedDeviceId);
+    }
+
+    @Benchmark
+    public String lookupUnrecognized() {
+        return deviceTable.getToken(unrecognizedDeviceId);
+    }
+}
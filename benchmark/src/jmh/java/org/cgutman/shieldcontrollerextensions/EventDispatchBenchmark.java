@@ -0,0 +1,81 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// End-to-end cost of an onDeviceChanged() event: handoff from the binder thread to the
+// event worker, the property fetch, and delivery to every listener.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventDispatchBenchmark {
+    private static final String TOKEN = "token";
+
+    @Param({"1", "4"})
+    int listenerCount;
+
+    private FakeSceTransport transport;
+    private EventDispatcher eventDispatcher;
+    private final AtomicLong callbackCount = new AtomicLong();
+    private int batteryPercentage;
+
+    @Setup
+    public void setup() throws Exception {
+        transport = new FakeSceTransport();
+        transport.addDevice(TOKEN, 10);
+
+        DeviceTable deviceTable = new DeviceTable();
+        RumbleEngine rumbleEngine = new RumbleEngine(ExecutorTaskScheduler.createDefault("EventDispatchBenchmark-Rumble"), new EventJournal());
+        eventDispatcher = new EventDispatcher(ExecutorTaskScheduler.createDefault("EventDispatchBenchmark"),
+                deviceTable, new ConcurrentHashMap<String, DeviceProperties>(), rumbleEngine,
+                new StatsCollector(), new EventJournal());
+        eventDispatcher.setTransport(transport);
+        eventDispatcher.setCoalescingWindow(0);
+
+        // Deliver callbacks inline on the event worker to measure our own overhead
+        Executor directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        };
+        for (int i = 0; i < listenerCount; i++) {
+            eventDispatcher.addListener(new SceManager.SceDeviceListener() {
+                @Override
+                public void onBatteryPercentageChanged(int inputDeviceId, int newBatteryPercentage) {
+                    callbackCount.incrementAndGet();
+                }
+            }, directExecutor);
+        }
+
+        transport.registerListener(eventDispatcher);
+        while (deviceTable.getToken(10) == null) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Benchmark
+    public long batteryChanged() {
+        // Change the value each time, since unchanged values aren't delivered
+        batteryPercentage = (batteryPercentage + 1) % 100;
+        transport.getDevice(TOKEN).batteryPercentage = batteryPercentage;
+
+        long expectedCount = callbackCount.get() + listenerCount;
+        eventDispatcher.onDeviceChanged(TOKEN, 2);
+        while (callbackCount.get() < expectedCount) {
+            Thread.yield();
+        }
+        return expectedCount;
+    }
+}
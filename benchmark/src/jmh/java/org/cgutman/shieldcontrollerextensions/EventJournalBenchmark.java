@@ -0,0 +1,42 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost of recording to the event journal, which must stay cheap (and allocation-free)
+// enough to leave enabled in production. A capacity of 0 measures the disabled journal.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventJournalBenchmark {
+    @Param({"0", "1024"})
+    int capacity;
+
+    private EventJournal journal;
+
+    @Setup
+    public void setup() {
+        journal = new EventJournal();
+        journal.setCapacity(capacity);
+    }
+
+    @Benchmark
+    public void record() {
+        journal.record(EventJournal.RUMBLE, "token", 65535, 0, EventJournal.RESULT_SUCCESS);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        journal.record(EventJournal.RUMBLE, "token", 65535, 0, EventJournal.RESULT_SUCCESS);
+    }
+}
@@ -0,0 +1,51 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import android.os.RemoteException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// Overhead of servicing rumble keepalives for several controllers with sustained rumble.
+// Each invocation advances a virtual clock to the next keepalive tick, so every invocation
+// sends one keepalive to each controller. The keepalive interval depends on the measured
+// RTT, so it isn't assumed here.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class KeepaliveBenchmark {
+    @Param({"1", "2", "4", "8"})
+    int controllerCount;
+
+    private ManualTaskScheduler scheduler;
+    private FakeSceTransport transport;
+
+    @Setup
+    public void setup() throws RemoteException {
+        scheduler = new ManualTaskScheduler();
+        transport = new FakeSceTransport();
+
+        RumbleEngine rumbleEngine = new RumbleEngine(scheduler, new EventJournal());
+        rumbleEngine.setTransport(transport);
+        for (int i = 0; i < controllerCount; i++) {
+            String token = "token" + i;
+            transport.addDevice(token, 10 + i);
+            rumbleEngine.rumble(token, 65535, 65535);
+        }
+    }
+
+    @Benchmark
+    public long keepaliveTick() {
+        if (!scheduler.advanceToNextTask()) {
+            throw new IllegalStateException("No keepalive scheduled");
+        }
+        return transport.getTransactionCount();
+    }
+}
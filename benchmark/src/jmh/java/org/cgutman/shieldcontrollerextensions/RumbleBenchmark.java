@@ -0,0 +1,88 @@
+package org.cgutman.shieldcontrollerextensions;
+
+import android.os.RemoteException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+// Throughput and latency of rumble commands issued round-robin across several controllers,
+// like a game driving rumble from trigger input on each one.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RumbleBenchmark {
+    @Param({"1", "2", "4", "8"})
+    int controllerCount;
+
+    // Simulated cost of each rumble transaction
+    @Param({"0", "50000"})
+    long transactionLatencyNanos;
+
+    // 0 disables rate limiting, so every command reaches the transport
+    @Param({"0", "30"})
+    int maxRumblesPerSecond;
+
+    // Records transaction stats like SceManager does
+    @Param({"false", "true"})
+    boolean instrumented;
+
+    private FakeSceTransport transport;
+    private RumbleEngine rumbleEngine;
+    private String[] tokens;
+    private int nextController;
+    private int amplitude;
+
+    @Setup
+    public void setup() {
+        transport = new FakeSceTransport();
+        transport.setLatencyNanos(transactionLatencyNanos);
+
+        tokens = new String[controllerCount];
+        for (int i = 0; i < controllerCount; i++) {
+            tokens[i] = "token" + i;
+            transport.addDevice(tokens[i], 10 + i);
+        }
+
+        rumbleEngine = new RumbleEngine(ExecutorTaskScheduler.createDefault("RumbleBenchmark"), new EventJournal());
+        rumbleEngine.setTransport(instrumented ? new InstrumentedSceTransport(transport, new StatsCollector()) : transport);
+        rumbleEngine.setMaxRumblesPerSecond(maxRumblesPerSecond);
+    }
+
+    @TearDown
+    public void tearDown() {
+        rumbleEngine.stopAll();
+    }
+
+    private String nextToken() {
+        String token = tokens[nextController];
+        nextController = (nextController + 1) % controllerCount;
+        return token;
+    }
+
+    private int nextAmplitude() {
+        // Vary the amplitude so commands aren't dropped as duplicates
+        amplitude = (amplitude + 1) & 0xFFFF;
+        return amplitude;
+    }
+
+    @Benchmark
+    public boolean rumble() throws RemoteException {
+        int amplitude = nextAmplitude();
+        return rumbleEngine.rumble(nextToken(), amplitude, amplitude);
+    }
+
+    @Benchmark
+    public void rumbleAsync() {
+        int amplitude = nextAmplitude();
+        rumbleEngine.rumbleAsync(nextToken(), amplitude, amplitude, null);
+    }
+}